@@ -0,0 +1,59 @@
+package ru.yandex.practicum.filmorate.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограниченный по размеру кэш результатов проверки существования сущностей по id.
+ * Хранит как положительные, так и отрицательные ответы, при переполнении вытесняет давно не запрошенные записи.
+ * Хранилище обязано сбрасывать запись при создании и удалении сущности
+ */
+
+public class ExistenceCache {
+
+    private final Map<Long, Boolean> entries;
+    // Счетчик изменений, по нему проверка понимает, что прочитанный ею ответ БД мог устареть
+    private final AtomicLong modifications = new AtomicLong();
+
+    public ExistenceCache(int capacity) {
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    // Закэшированный ответ для id или null, если его нет
+    public Boolean get(Long id) {
+        return entries.get(id);
+    }
+
+    // Текущая версия кэша, ее нужно запомнить до обращения к БД
+    public long version() {
+        return modifications.get();
+    }
+
+    // Сохранение ответа БД, если с момента запроса сущности не создавались и не удалялись
+    public void putIfUnchanged(Long id, boolean exists, long version) {
+        synchronized (entries) {
+            if (modifications.get() == version) {
+                entries.put(id, exists);
+            }
+        }
+    }
+
+    // Сброс ответа для id при создании или удалении сущности
+    public void invalidate(Long id) {
+        modifications.incrementAndGet();
+        entries.remove(id);
+    }
+
+    // Полная очистка кэша
+    public void invalidateAll() {
+        modifications.incrementAndGet();
+        entries.clear();
+    }
+}
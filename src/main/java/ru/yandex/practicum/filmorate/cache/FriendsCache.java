@@ -0,0 +1,62 @@
+package ru.yandex.practicum.filmorate.cache;
+
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.utils.SortedLongArrays;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Кэш списков друзей: для каждого пользователя хранится отсортированный массив long с id друзей.
+ * Такой массив занимает 8 байт на друга против ~60 байт у HashSet<Long>, а проверка дружбы не создает объектов.
+ * Списки загружаются при первом обращении и точечно обновляются при добавлении и удалении друзей
+ */
+
+@Component
+public class FriendsCache {
+
+    private final ConcurrentHashMap<Long, long[]> friendsByUser = new ConcurrentHashMap<>();
+    // Счетчик изменений, по нему пакетная загрузка понимает, что прочитанные ею данные могли устареть
+    private final AtomicLong modifications = new AtomicLong();
+
+    // Получение id друзей пользователя. При промахе список загружается через loader.
+    // Возвращаемый массив общий для всех читателей и не должен изменяться
+    public long[] getFriends(Long userId, Function<Long, long[]> loader) {
+        return friendsByUser.computeIfAbsent(userId, loader);
+    }
+
+    // Проверка наличия списка друзей пользователя в кэше
+    public boolean contains(Long userId) {
+        return friendsByUser.containsKey(userId);
+    }
+
+    // Текущая версия кэша, ее нужно запомнить до чтения списков друзей из БД
+    public long version() {
+        return modifications.get();
+    }
+
+    // Сохранение списка друзей, прочитанного из БД пакетом. Если после чтения списки друзей менялись,
+    // список не сохраняется и будет загружен отдельно при следующем обращении
+    public void putIfUnchanged(Long userId, long[] friendIds, long version) {
+        friendsByUser.computeIfAbsent(userId, id -> modifications.get() == version ? friendIds : null);
+    }
+
+    // Добавление друга в уже загруженный список
+    public void addFriend(Long userId, Long friendId) {
+        modifications.incrementAndGet();
+        friendsByUser.computeIfPresent(userId, (id, friends) -> SortedLongArrays.insert(friends, friendId));
+    }
+
+    // Удаление друга из уже загруженного списка
+    public void removeFriend(Long userId, Long friendId) {
+        modifications.incrementAndGet();
+        friendsByUser.computeIfPresent(userId, (id, friends) -> SortedLongArrays.remove(friends, friendId));
+    }
+
+    // Полная очистка кэша, например после удаления пользователя, id которого может быть в чужих списках
+    public void invalidateAll() {
+        modifications.incrementAndGet();
+        friendsByUser.clear();
+    }
+}
@@ -0,0 +1,82 @@
+package ru.yandex.practicum.filmorate.cache;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.index.LikesChangeListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Версии фильмов, пользователей и рейтинга популярности для условных GET-запросов.
+ * Версия увеличивается после каждого изменения, которое видно в ответе, и входит в ETag вместе с id запуска,
+ * поэтому ETag, выданные до перезапуска, не совпадут с новыми. Версии хранятся только для измененных сущностей.
+ * Увеличивать версию нужно после записи в БД: тогда новая версия не может оказаться у старого ответа.
+ * По той же причине события лайков приходят сюда последними, после обновления индексов в памяти
+ */
+
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class VersionRegistry implements LikesChangeListener {
+
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+    // Источник версий сущностей: значения уникальны и только растут
+    private final AtomicLong clock = new AtomicLong();
+    // Общая эпоха меняет ETag всех ресурсов, например после удаления пользователя,
+    // которое каскадно меняет лайки фильмов и чужие списки друзей
+    private final AtomicLong epoch = new AtomicLong();
+    private final AtomicLong popularityEpoch = new AtomicLong();
+    private final ConcurrentHashMap<Long, Long> filmVersions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Long> userVersions = new ConcurrentHashMap<>();
+
+    // Текущий ETag ресурса. Для рейтинга популярности id не используется
+    public String etag(VersionedResource resource, Long id) {
+        long version = switch (resource) {
+            case FILM -> filmVersions.getOrDefault(id, 0L);
+            case USER -> userVersions.getOrDefault(id, 0L);
+            case POPULAR_FILMS -> popularityEpoch.get();
+        };
+        return resource.name().toLowerCase() + "-" + bootId + "-" + epoch.get() + "-" + version;
+    }
+
+    public void filmChanged(Long filmId) {
+        filmVersions.put(filmId, clock.incrementAndGet());
+    }
+
+    public void userChanged(Long userId) {
+        userVersions.put(userId, clock.incrementAndGet());
+    }
+
+    public void popularityChanged() {
+        popularityEpoch.incrementAndGet();
+    }
+
+    // Лайк меняет список лайков фильма и может менять рейтинг популярности
+    @Override
+    public void likeAdded(Long filmId, Long userId) {
+        filmChanged(filmId);
+        popularityChanged();
+    }
+
+    @Override
+    public void likeRemoved(Long filmId, Long userId) {
+        filmChanged(filmId);
+        popularityChanged();
+    }
+
+    // Версия удаленной сущности больше не нужна. Без нее версия считается нулевой и могла бы совпасть
+    // с ETag, выданным до удаления, поэтому вместе с удалением записи меняется общая эпоха
+    @Override
+    public void filmRemoved(Long filmId) {
+        filmVersions.remove(filmId);
+        epoch.incrementAndGet();
+        popularityChanged();
+    }
+
+    @Override
+    public void userRemoved(Long userId) {
+        userVersions.remove(userId);
+        epoch.incrementAndGet();
+    }
+}
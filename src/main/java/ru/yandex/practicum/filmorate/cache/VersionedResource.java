@@ -0,0 +1,11 @@
+package ru.yandex.practicum.filmorate.cache;
+
+/**
+ * Ресурсы, для которых ведутся версии и выдаются ETag
+ */
+
+public enum VersionedResource {
+    FILM,
+    USER,
+    POPULAR_FILMS
+}
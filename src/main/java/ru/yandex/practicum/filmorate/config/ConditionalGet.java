@@ -0,0 +1,20 @@
+package ru.yandex.practicum.filmorate.config;
+
+import ru.yandex.practicum.filmorate.cache.VersionedResource;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Метод контроллера отдает ресурс с ETag из VersionRegistry. Id ресурса берется из переменной пути "id".
+ * Если ETag совпал с If-None-Match, ответ 304 формируется до вызова метода
+ */
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConditionalGet {
+
+    VersionedResource value();
+}
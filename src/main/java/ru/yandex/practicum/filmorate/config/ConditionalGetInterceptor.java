@@ -0,0 +1,61 @@
+package ru.yandex.practicum.filmorate.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import ru.yandex.practicum.filmorate.cache.VersionRegistry;
+
+import java.util.Map;
+
+/**
+ * Обработка условных GET-запросов для методов с @ConditionalGet: ETag считается по счетчикам версий в памяти,
+ * поэтому неизмененный ресурс получает 304 без обращения к хранилищу и без сериализации JSON
+ */
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConditionalGetInterceptor implements HandlerInterceptor {
+
+    private static final String ID_VARIABLE = "id";
+
+    private final VersionRegistry versionRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod method) || !HttpMethod.GET.matches(request.getMethod())) {
+            return true;
+        }
+        ConditionalGet conditionalGet = method.getMethodAnnotation(ConditionalGet.class);
+        if (conditionalGet == null) {
+            return true;
+        }
+
+        Long id = null;
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(
+                HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables != null && variables.containsKey(ID_VARIABLE)) {
+            try {
+                id = Long.parseLong(variables.get(ID_VARIABLE));
+            } catch (NumberFormatException e) {
+                // Некорректный id обработает сам метод контроллера
+                return true;
+            }
+        }
+
+        String etag = versionRegistry.etag(conditionalGet.value(), id);
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            log.debug("Ресурс {} не изменился, ETag {}", request.getRequestURI(), etag);
+            return false;
+        }
+        return true;
+    }
+}
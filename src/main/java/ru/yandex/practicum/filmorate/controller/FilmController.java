@@ -1,15 +1,31 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.cache.VersionedResource;
+import ru.yandex.practicum.filmorate.config.ConditionalGet;
+import ru.yandex.practicum.filmorate.dto.BulkImportResult;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.LikesQueueStats;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
+import ru.yandex.practicum.filmorate.dto.PopularityCheckResult;
 import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
+import ru.yandex.practicum.filmorate.model.FilmField;
 import ru.yandex.practicum.filmorate.service.FilmService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
+import java.util.Set;
 
 @Slf4j
 @RestController
@@ -25,6 +41,31 @@ public class FilmController {
         return filmService.findAll();
     }
 
+    @GetMapping(params = {"fields", "!limit"})
+    public MappingJacksonValue findAll(@RequestParam String fields) {
+        log.info("Получен запрос на получение списка всех фильмов с полями {}", fields);
+        Set<FilmField> filmFields = FilmField.parse(fields);
+        return withFields(filmService.findAll(filmFields), filmFields);
+    }
+
+    @GetMapping(params = "limit")
+    public MappingJacksonValue findPage(@RequestParam int limit,
+                                        @RequestParam(required = false) String after,
+                                        @RequestParam(required = false) String fields) {
+        log.info("Получен запрос на получение страницы из {} фильмов после курсора {}", limit, after);
+        Set<FilmField> filmFields = FilmField.parse(fields);
+        return withFields(filmService.findPage(limit, after, filmFields), filmFields);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportAll() {
+        log.info("Получен запрос на потоковую выгрузку всех фильмов");
+        StreamingResponseBody body = filmService::exportAll;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public FilmDto create(@RequestBody NewFilmRequest newFilmRequest) {
@@ -32,6 +73,12 @@ public class FilmController {
         return filmService.create(newFilmRequest);
     }
 
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkImportResult createBulk(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку фильмов");
+        return filmService.createBulk(body);
+    }
+
     @PutMapping
     public FilmDto update(@RequestBody UpdateFilmRequest filmRequest) {
         log.info("Получен запрос на обновление фильма c Id:{}", filmRequest.getId());
@@ -46,11 +93,19 @@ public class FilmController {
     }
 
     @GetMapping("/{id}")
+    @ConditionalGet(VersionedResource.FILM)
     public FilmDto getById(@PathVariable("id") Long filmId) {
         log.info("Получен запрос на получение фильма с Id:{}", filmId);
         return filmService.findById(filmId);
     }
 
+    @GetMapping(value = "/{id}", params = "fields")
+    public MappingJacksonValue getById(@PathVariable("id") Long filmId, @RequestParam String fields) {
+        log.info("Получен запрос на получение фильма с Id:{} с полями {}", filmId, fields);
+        Set<FilmField> filmFields = FilmField.parse(fields);
+        return withFields(filmService.findById(filmId, filmFields), filmFields);
+    }
+
     @PutMapping("/{id}/like/{userId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public void addLike(@PathVariable("id") Long filmId, @PathVariable("userId") Long userId) {
@@ -66,9 +121,57 @@ public class FilmController {
     }
 
     @GetMapping("/popular")
+    @ConditionalGet(VersionedResource.POPULAR_FILMS)
     public Collection<FilmDto> getPopularFilms(
             @RequestParam(defaultValue = "10") int count) {
         log.info("Получен запрос на получение топ-{} фильмов по количеству лайков", count);
         return filmService.findPopularFilms(count);
     }
+
+    @GetMapping(value = "/popular", params = "fields")
+    public MappingJacksonValue getPopularFilms(@RequestParam(defaultValue = "10") int count,
+                                               @RequestParam String fields) {
+        log.info("Получен запрос на получение топ-{} фильмов с полями {}", count, fields);
+        Set<FilmField> filmFields = FilmField.parse(fields);
+        return withFields(filmService.findPopularFilms(count, filmFields), filmFields);
+    }
+
+    @GetMapping("/{id}/similar")
+    public Collection<FilmDto> getSimilarFilms(@PathVariable("id") Long filmId,
+                                               @RequestParam(defaultValue = "10") int limit) {
+        log.info("Получен запрос на получение {} фильмов, похожих на фильм с Id:{}", limit, filmId);
+        return filmService.findSimilarFilms(filmId, limit);
+    }
+
+    // Сверка рейтинга популярных фильмов с БД без изменения рейтинга
+    @GetMapping("/popular/check")
+    public PopularityCheckResult checkPopularFilms() {
+        log.info("Получен запрос на сверку рейтинга популярных фильмов с БД");
+        return filmService.checkPopularity();
+    }
+
+    // Сверка рейтинга популярных фильмов с БД и исправление расхождений
+    @PostMapping("/popular/check")
+    public PopularityCheckResult repairPopularFilms() {
+        log.info("Получен запрос на исправление рейтинга популярных фильмов по БД");
+        return filmService.repairPopularity();
+    }
+
+    // Получение метрик очереди отложенной записи лайков
+    @GetMapping("/likes/queue")
+    public LikesQueueStats getLikesQueueStats() {
+        log.info("Получен запрос на метрики очереди лайков");
+        return filmService.getLikesQueueStats();
+    }
+
+    // Вспомогательный метод для ограничения полей фильма в ответе запрошенным набором
+    private MappingJacksonValue withFields(Object body, Set<FilmField> fields) {
+        String[] names = fields.stream()
+                .map(FilmField::getJsonName)
+                .toArray(String[]::new);
+        MappingJacksonValue value = new MappingJacksonValue(body);
+        value.setFilters(new SimpleFilterProvider()
+                .addFilter(FilmDto.FIELDS_FILTER, SimpleBeanPropertyFilter.filterOutAllExcept(names)));
+        return value;
+    }
 }
\ No newline at end of file
@@ -3,12 +3,20 @@ package ru.yandex.practicum.filmorate.controller;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.cache.VersionedResource;
+import ru.yandex.practicum.filmorate.config.ConditionalGet;
+import ru.yandex.practicum.filmorate.dto.BulkImportResult;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
 import ru.yandex.practicum.filmorate.service.UserService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 @Slf4j
@@ -25,6 +33,12 @@ public class UserController {
         return userService.findAll();
     }
 
+    @GetMapping(params = "limit")
+    public PageDto<UserDto> findPage(@RequestParam int limit, @RequestParam(required = false) String after) {
+        log.info("Получен запрос на получение страницы из {} пользователей после курсора {}", limit, after);
+        return userService.findPage(limit, after);
+    }
+
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public UserDto create(@RequestBody NewUserRequest newUserRequest) {
@@ -32,6 +46,18 @@ public class UserController {
         return userService.create(newUserRequest);
     }
 
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public BulkImportResult createBulkFromNdjson(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку пользователей в формате NDJSON");
+        return userService.createBulkFromNdjson(body);
+    }
+
+    @PostMapping(value = "/bulk", consumes = "text/csv")
+    public BulkImportResult createBulkFromCsv(InputStream body) throws IOException {
+        log.info("Получен запрос на пакетную загрузку пользователей в формате CSV");
+        return userService.createBulkFromCsv(body);
+    }
+
     @PutMapping
     public UserDto update(@RequestBody UpdateUserRequest userRequest) {
         log.info("Получен запрос на обновление пользователя с id:{}", userRequest.getId());
@@ -46,6 +72,7 @@ public class UserController {
     }
 
     @GetMapping("/{id}")
+    @ConditionalGet(VersionedResource.USER)
     public UserDto getById(@PathVariable("id") Long userId) {
         log.info("Получен запрос на получение пользователя с Id:{}", userId);
         return userService.getById(userId);
@@ -76,4 +103,11 @@ public class UserController {
         log.info("Получен запрос на получение списка общих друзей у пользователей с Id:{} и {}", userId, otherId);
         return userService.findCommonFriends(userId, otherId);
     }
-}
\ No newline at end of file
+
+    @GetMapping("/{id}/friends/suggestions")
+    public Collection<FriendSuggestionDto> getFriendSuggestions(@PathVariable("id") Long userId,
+                                                                @RequestParam(defaultValue = "10") int limit) {
+        log.info("Получен запрос на получение {} рекомендаций друзей для пользователя с Id:{}", limit, userId);
+        return userService.findFriendSuggestions(userId, limit);
+    }
+}
@@ -0,0 +1,45 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.PageDto;
+import ru.yandex.practicum.filmorate.service.FilmService;
+
+import java.util.Collection;
+
+/**
+ * Подборки фильмов для конкретного пользователя
+ */
+
+@Slf4j
+@RestController
+@RequestMapping("/users")
+@RequiredArgsConstructor
+public class UserFilmController {
+
+    private final FilmService filmService;
+
+    @GetMapping("/{id}/recommendations")
+    public Collection<FilmDto> getRecommendations(@PathVariable("id") Long userId,
+                                                  @RequestParam(defaultValue = "10") int limit) {
+        log.info("Получен запрос на получение {} рекомендаций фильмов для пользователя с Id:{}", limit, userId);
+        return filmService.findRecommendations(userId, limit);
+    }
+
+    @GetMapping("/{id}/feed")
+    public Collection<FilmDto> getFeed(@PathVariable("id") Long userId, @RequestParam(defaultValue = "10") int limit) {
+        log.info("Получен запрос на получение ленты из {} фильмов для пользователя с Id:{}", limit, userId);
+        return filmService.findFeed(userId, limit);
+    }
+
+    @GetMapping("/{id}/likes")
+    public PageDto<FilmDto> getLikedFilms(@PathVariable("id") Long userId,
+                                          @RequestParam(defaultValue = "20") int limit,
+                                          @RequestParam(required = false) String after) {
+        log.info("Получен запрос на получение страницы из {} лайкнутых фильмов пользователя с Id:{} после курсора {}",
+                limit, userId, after);
+        return filmService.findLikedByUser(userId, limit, after);
+    }
+}
@@ -2,19 +2,25 @@ package ru.yandex.practicum.filmorate.dal;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
+import ru.yandex.practicum.filmorate.cache.ExistenceCache;
 import ru.yandex.practicum.filmorate.exception.InternalServerException;
 
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 @RequiredArgsConstructor
 public class BaseDbStorage<T> {
 
+    // Наибольшее количество параметров в одном условии IN, более длинные наборы id читаются частями
+    protected static final int MAX_IN_PARAMS = 1000;
+
     protected final JdbcTemplate jdbc;
     protected final RowMapper<T> mapper;
 
@@ -31,6 +37,57 @@ public class BaseDbStorage<T> {
         return jdbc.query(query, mapper, params);
     }
 
+    // Список плейсхолдеров "?, ?, ?" для условия IN с заданным количеством параметров
+    protected static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    // Выполнение запроса с условием IN по частям не больше MAX_IN_PARAMS id:
+    // длина текста запроса и число параметров не растут вместе с размером набора
+    protected void queryInChunks(String queryTemplate, Collection<Long> ids, RowCallbackHandler handler) {
+        List<Long> idList = List.copyOf(ids);
+        for (int from = 0; from < idList.size(); from += MAX_IN_PARAMS) {
+            List<Long> chunk = idList.subList(from, Math.min(from + MAX_IN_PARAMS, idList.size()));
+            jdbc.query(queryTemplate.formatted(placeholders(chunk.size())), handler, chunk.toArray());
+        }
+    }
+
+    // Проверка существования строки по id: сначала по кэшу, затем одним запросом по первичному ключу
+    protected boolean exists(ExistenceCache cache, String query, long id) {
+        Boolean cached = cache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = cache.version();
+        boolean exists = Boolean.TRUE.equals(jdbc.queryForObject(query, Boolean.class, id));
+        cache.putIfUnchanged(id, exists, version);
+        return exists;
+    }
+
+    // Проверка существования всех id: неизвестные кэшу id проверяются одним запросом IN
+    protected boolean existsAll(ExistenceCache cache, String queryTemplate, Collection<Long> ids) {
+        Set<Long> unknown = new HashSet<>();
+        for (Long id : ids) {
+            Boolean cached = cache.get(id);
+            if (Boolean.FALSE.equals(cached)) {
+                return false;
+            }
+            if (cached == null) {
+                unknown.add(id);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return true;
+        }
+
+        long version = cache.version();
+        Set<Long> found = new HashSet<>(jdbc.queryForList(
+                queryTemplate.formatted(placeholders(unknown.size())), Long.class, unknown.toArray()));
+        unknown.forEach(id -> cache.putIfUnchanged(id, found.contains(id), version));
+        return found.size() == unknown.size();
+    }
+
     protected boolean delete(String query, long id) {
         int rowsDeleted = jdbc.update(query, id);
         return rowsDeleted > 0;
@@ -61,4 +118,38 @@ public class BaseDbStorage<T> {
             throw new InternalServerException("Не удалось сохранить данные");
         }
     }
-}
\ No newline at end of file
+
+    // Пакетная вставка строк одним пакетом JDBC. Возвращает сгенерированные id в порядке строк пакета
+    protected List<Long> insertBatch(String query, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbc.batchUpdate(
+                connection -> connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int row) throws SQLException {
+                        Object[] params = rows.get(row);
+                        for (int idx = 0; idx < params.length; idx++) {
+                            ps.setObject(idx + 1, params[idx]);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return rows.size();
+                    }
+                },
+                keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        if (keys.size() != rows.size()) {
+            throw new InternalServerException("Не удалось сохранить данные");
+        }
+        return keys.stream()
+                .map(key -> ((Number) key.values().iterator().next()).longValue())
+                .toList();
+    }
+}
@@ -5,10 +5,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.cache.ExistenceCache;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.*;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -29,22 +34,41 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
     private static final String UPDATE_QUERY = "UPDATE films SET " +
             "name = ?, description = ?, release_date = ?, duration = ?, rating_id = ? WHERE film_id = ?";
     private static final String FIND_BY_ID_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, " +
-            "f.duration, m.rating_id, m.name AS mpa_name " +
+            "f.duration, f.likes_count, m.rating_id, m.name AS mpa_name " +
             "FROM films AS f " +
             "INNER JOIN mpa_rating AS m ON f.rating_id = m.rating_id " +
             "WHERE f.film_id = ?";
     private static final String FIND_ALL_FILMS_QUERY = "SELECT f.film_id, f.name, f.description, f.release_date, " +
-            "f.duration, m.rating_id, m.name AS mpa_name " +
+            "f.duration, f.likes_count, m.rating_id, m.name AS mpa_name " +
             "FROM films AS f " +
             "INNER JOIN mpa_rating AS m ON f.rating_id = m.rating_id";
-    private static final String FIND_POPULAR_FILMS_QUERY = "SELECT f.film_id, f.name, f.description, " +
-            "f.release_date, f.duration, m.rating_id, m.name AS mpa_name, COUNT(l.user_id) AS likes " +
-            "FROM films As f " +
+    private static final String FIND_BY_IDS_QUERY = FIND_ALL_FILMS_QUERY + " WHERE f.film_id IN (%s)";
+    private static final String FIND_PAGE_QUERY = FIND_ALL_FILMS_QUERY + " WHERE f.film_id > ? " +
+            "ORDER BY f.film_id " +
+            "LIMIT ?";
+    private static final String EXPORT_ALL_FILMS_QUERY = "SELECT f.film_id, f.name, f.description, " +
+            "f.release_date, f.duration, f.likes_count, m.rating_id, m.name AS mpa_name, " +
+            "g.genre_id, g.name AS genre_name " +
+            "FROM films AS f " +
             "INNER JOIN mpa_rating AS m ON f.rating_id = m.rating_id " +
+            "LEFT JOIN film_genres AS fg ON f.film_id = fg.film_id " +
+            "LEFT JOIN genre AS g ON fg.genre_id = g.genre_id " +
+            "ORDER BY f.film_id";
+    private static final String EXISTS_QUERY = "SELECT EXISTS (SELECT 1 FROM films WHERE film_id = ?)";
+    private static final String FIND_EXISTING_IDS_QUERY = "SELECT film_id FROM films WHERE film_id IN (%s)";
+    private static final int EXISTENCE_CACHE_SIZE = 100_000;
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final String FIND_LIKES_COUNTS_QUERY = "SELECT film_id, likes_count FROM films";
+    private static final String FIND_LIKES_COUNT_MISMATCHES_QUERY = "SELECT f.film_id " +
+            "FROM films AS f " +
             "LEFT JOIN likes AS l ON f.film_id = l.film_id " +
-            "GROUP BY f.film_id " +
-            "ORDER BY likes DESC " +
-            "LIMIT ?";
+            "GROUP BY f.film_id, f.likes_count " +
+            "HAVING f.likes_count <> COUNT(l.user_id)";
+    private static final String RECOUNT_LIKES_QUERY = "UPDATE films AS f " +
+            "SET likes_count = (SELECT COUNT(*) FROM likes AS l WHERE l.film_id = f.film_id) " +
+            "WHERE f.film_id = ?";
+
+    private final ExistenceCache existenceCache = new ExistenceCache(EXISTENCE_CACHE_SIZE);
 
     public FilmDbStorage(JdbcTemplate jdbc, RowMapper<Film> mapper) {
         super(jdbc, mapper);
@@ -52,6 +76,7 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
 
     // Добавление фильма
     @Override
+    @Transactional
     public Film create(Film film) {
         long id = insert(
                 INSERT_QUERY,
@@ -62,24 +87,54 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
                 film.getMpa().getId()
         );
         film.setId(id);
+        existenceCache.invalidate(id);
 
         if (film.getGenres() != null) {
             genreStorage.setGenreForFilm(id, film.getGenres());
         }
 
-        mpaStorage.findMpaFilm(id).ifPresent(film::setMpa);
+        return resolveReferences(film);
+    }
 
-        return film;
+    // Пакетное добавление фильмов: строки фильмов и их жанры пишутся пакетами JDBC в одной транзакции,
+    // id фильмов возвращаются БД вместе с результатом пакета
+    @Override
+    @Transactional
+    public List<Film> createBatch(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
+
+        List<Object[]> rows = films.stream()
+                .map(film -> new Object[]{
+                        film.getName(),
+                        film.getDescription(),
+                        film.getReleaseDate(),
+                        film.getDuration(),
+                        film.getMpa().getId()})
+                .toList();
+        List<Long> ids = insertBatch(INSERT_QUERY, rows);
+        for (int idx = 0; idx < films.size(); idx++) {
+            films.get(idx).setId(ids.get(idx));
+            existenceCache.invalidate(ids.get(idx));
+            films.get(idx).setLikesCount(0L);
+        }
+
+        genreStorage.addGenresForFilms(films);
+        films.forEach(this::resolveReferences);
+        return films;
     }
 
     // Удаление фильма
     @Override
     public void delete(Long id) {
         delete(DELETE_QUERY, id);
+        existenceCache.invalidate(id);
     }
 
     // Изменение фильма
     @Override
+    @Transactional
     public Film update(Film film) {
         update(
                 UPDATE_QUERY,
@@ -95,64 +150,168 @@ public class FilmDbStorage extends BaseDbStorage<Film> implements FilmStorage {
             genreStorage.setGenreForFilm(film.getId(), film.getGenres());
         }
 
-        // Возвращаем полный объект из БД
-        return findById(film.getId()).orElseThrow();
+        // Ответ собирается из уже известных данных и справочников, без повторного чтения фильма и его лайков
+        return resolveReferences(film);
+    }
+
+    // Проверка существования фильма без загрузки его данных
+    @Override
+    public boolean exists(Long filmId) {
+        return exists(existenceCache, EXISTS_QUERY, filmId);
+    }
+
+    // Проверка существования всех фильмов из списка
+    @Override
+    public boolean existsAll(Collection<Long> filmIds) {
+        return existsAll(existenceCache, FIND_EXISTING_IDS_QUERY, filmIds);
     }
 
     // Получение фильма по id
     @Override
-    public Optional<Film> findById(Long id) {
+    public Optional<Film> findById(Long id, Set<FilmField> fields) {
         Optional<Film> film = findOne(FIND_BY_ID_QUERY, id);
-        film.ifPresent(this::loadFilmData);
+        film.ifPresent(value -> loadFilmsData(List.of(value), fields, false));
         return film;
     }
 
     // Получение всех фильмов
     @Override
-    public Collection<Film> findAll() {
+    public Collection<Film> findAll(Set<FilmField> fields) {
         Collection<Film> films = findMany(FIND_ALL_FILMS_QUERY);
-        films.forEach(this::loadFilmData);
+        loadFilmsData(films, fields, true);
         return films;
     }
 
-    // Получение популярных фильмов по количеству лайков
+    // Получение фильмов по набору id
     @Override
-    public Collection<Film> findPopularFilms(int count) {
-        Collection<Film> films = findMany(FIND_POPULAR_FILMS_QUERY, count);
-        films.forEach(this::loadFilmData);
+    public Collection<Film> findByIds(Collection<Long> filmIds, Set<FilmField> fields) {
+        if (filmIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Film> films = new ArrayList<>(filmIds.size());
+        queryInChunks(FIND_BY_IDS_QUERY, filmIds, rs -> {
+            films.add(mapper.mapRow(rs, rs.getRow()));
+        });
+        loadFilmsData(films, fields, false);
         return films;
     }
 
-    // Общий вспомогательный метод для загрузки всех данных фильма
-    private void loadFilmData(Film film) {
-        loadLikes(film);
-        loadGenres(film);
-        loadMpa(film);
+    // Получение страницы фильмов с id больше afterId
+    @Override
+    public List<Film> findPage(long afterId, int limit, Set<FilmField> fields) {
+        List<Film> films = findMany(FIND_PAGE_QUERY, afterId, limit);
+        loadFilmsData(films, fields, false);
+        return films;
     }
 
-    // Вспомогательный метод для загрузки данных о лайках фильма
-    private void loadLikes(Film film) {
-        Set<Long> likes = likesStorage.getLikesOnFilm(film.getId()).stream()
-                .map(Likes::getUserId)
-                .collect(Collectors.toCollection(HashSet::new));
-        film.setLikesByUsers(likes);
+    // Построчная выгрузка всех фильмов с жанрами без накопления результата в памяти.
+    // Строки идут в порядке film_id, поэтому фильм передается потребителю, как только начинается следующий
+    @Override
+    public void exportAll(Consumer<Film> consumer) {
+        Film[] current = new Film[1];
+        jdbc.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(EXPORT_ALL_FILMS_QUERY,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(EXPORT_FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            long filmId = rs.getLong("film_id");
+            if (current[0] == null || current[0].getId() != filmId) {
+                if (current[0] != null) {
+                    acceptExported(current[0], consumer);
+                }
+                current[0] = mapper.mapRow(rs, rs.getRow());
+                current[0].setLikesByUsers(null);
+            }
+
+            long genreId = rs.getLong("genre_id");
+            if (!rs.wasNull()) {
+                Genre genre = new Genre();
+                genre.setId(genreId);
+                genre.setName(rs.getString("genre_name"));
+                current[0].getGenres().add(genre);
+            }
+        });
+
+        if (current[0] != null) {
+            acceptExported(current[0], consumer);
+        }
+    }
+
+    // Вспомогательный метод для передачи собранного при выгрузке фильма. Жанры сортируются здесь, а не в запросе:
+    // порядок только по первичному ключу films позволяет БД отдавать строки без полной сортировки результата
+    private void acceptExported(Film film, Consumer<Film> consumer) {
+        film.setGenres(film.getGenres().stream()
+                .sorted(Comparator.comparing(Genre::getId))
+                .collect(Collectors.toCollection(LinkedHashSet::new)));
+        consumer.accept(film);
     }
 
-    // Вспомогательный метод для загрузки данных о жанрах фильма
-    private void loadGenres(Film film) {
-        Collection<Genre> genres = genreStorage.findGenreForFilm(film.getId());
-        film.setGenres(genres != null ?
-                genres.stream()
-                        .sorted(Comparator.comparing(Genre::getId))
-                        .collect(Collectors.toCollection(LinkedHashSet::new)) :
-                new LinkedHashSet<>());
+    // Получение счетчиков лайков всех фильмов из films.likes_count без подсчета по таблице likes
+    @Override
+    public Map<Long, Long> findLikesCounts() {
+        Map<Long, Long> counts = new HashMap<>();
+        jdbc.query(FIND_LIKES_COUNTS_QUERY, rs -> {
+            counts.put(rs.getLong("film_id"), rs.getLong("likes_count"));
+        });
+        return counts;
+    }
+
+    // Поиск фильмов, у которых счетчик likes_count не совпадает с числом строк в likes.
+    // Счетчик и лайки сравниваются одним запросом, поэтому лайк, записанный параллельно, расхождения не дает
+    @Override
+    public List<Long> findLikesCountMismatches() {
+        return jdbc.query(FIND_LIKES_COUNT_MISMATCHES_QUERY, (rs, rowNum) -> rs.getLong("film_id"));
     }
 
-    // Вспомогательный метод для загрузки данных о рейтинге фильма
-    private void loadMpa(Film film) {
-        if (film.getMpa() == null || film.getMpa().getName() == null) {
-            mpaStorage.findMpaById(film.getMpa().getId())
-                    .ifPresent(film::setMpa);
+    // Пересчет счетчиков лайков фильмов по таблице likes
+    @Override
+    @Transactional
+    public void recountLikes(Collection<Long> filmIds) {
+        if (filmIds.isEmpty()) {
+            return;
         }
+
+        jdbc.batchUpdate(RECOUNT_LIKES_QUERY, filmIds.stream()
+                .map(filmId -> new Object[]{filmId})
+                .toList());
+    }
+
+    // Вспомогательный метод для заполнения названий рейтинга и жанров фильма из справочников
+    private Film resolveReferences(Film film) {
+        if (film.getMpa() != null && film.getMpa().getId() != null) {
+            mpaStorage.findMpaById(film.getMpa().getId()).ifPresent(film::setMpa);
+        }
+        if (film.getGenres() != null) {
+            film.setGenres(film.getGenres().stream()
+                    .map(genre -> genreStorage.findById(genre.getId()).orElse(genre))
+                    .sorted(Comparator.comparing(Genre::getId))
+                    .collect(Collectors.toCollection(LinkedHashSet::new)));
+        }
+        return film;
+    }
+
+    // Общий вспомогательный метод для загрузки лайков и жанров сразу для набора фильмов: для всех фильмов -
+    // по всем таблицам без списка id, иначе - по id фильмов частями. Незапрошенные связи не загружаются вовсе
+    private void loadFilmsData(Collection<Film> films, Set<FilmField> fields, boolean allFilms) {
+        if (films.isEmpty()) {
+            return;
+        }
+
+        List<Long> filmIds = films.stream()
+                .map(Film::getId)
+                .toList();
+        boolean withLikes = fields.contains(FilmField.LIKES_BY_USERS);
+        boolean withGenres = fields.contains(FilmField.GENRES);
+        Map<Long, Set<Long>> likes = !withLikes ? Map.of() :
+                allFilms ? likesStorage.getLikesOnAllFilms() : likesStorage.getLikesOnFilms(filmIds);
+        Map<Long, Set<Genre>> genres = !withGenres ? Map.of() :
+                allFilms ? genreStorage.findGenresForAllFilms() : genreStorage.findGenresForFilms(filmIds);
+
+        films.forEach(film -> {
+            film.setLikesByUsers(withLikes ? likes.getOrDefault(film.getId(), new HashSet<>()) : null);
+            film.setGenres(withGenres ? genres.getOrDefault(film.getId(), new LinkedHashSet<>()) : null);
+        });
     }
 }
\ No newline at end of file
@@ -1,66 +1,115 @@
 package ru.yandex.practicum.filmorate.dal;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.cache.FriendsCache;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.FriendshipStorage;
 
 import java.util.Collection;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.function.Consumer;
 
 @Slf4j
 @Repository
 public class FriendshipDbStorage extends BaseDbStorage<Friendship> implements FriendshipStorage {
 
-    private final UserDbStorage userStorage;
+    private final RowMapper<User> userMapper;
+    private final FriendsCache friendsCache;
 
-    private static final String INSERT_QUERY = "INSERT INTO friendship(user_id, friend_id) VALUES (?, ?)";
+    private static final String MERGE_QUERY = "MERGE INTO friendship AS f " +
+            "USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT))) AS s (user_id, friend_id) " +
+            "ON f.user_id = s.user_id AND f.friend_id = s.friend_id " +
+            "WHEN NOT MATCHED THEN INSERT (user_id, friend_id) VALUES (s.user_id, s.friend_id)";
     private static final String DELETE_QUERY = "DELETE FROM friendship WHERE user_id = ? AND friend_id = ?";
     private static final String FIND_FRIENDS_QUERY =
-            "SELECT f.user_id, f.friend_id FROM friendship f WHERE f.user_id = ?";
+            "SELECT u.user_id, u.email, u.login, u.name, u.birthday " +
+                    "FROM friendship f " +
+                    "JOIN users u ON u.user_id = f.friend_id " +
+                    "WHERE f.user_id = ? " +
+                    "ORDER BY u.user_id";
     private static final String FIND_COMMON_FRIENDS_QUERY =
-            "SELECT f1.user_id, f1.friend_id " +
+            "SELECT u.user_id, u.email, u.login, u.name, u.birthday " +
                     "FROM friendship f1 " +
                     "JOIN friendship f2 ON f1.friend_id = f2.friend_id " +
-                    "WHERE f1.user_id = ? AND f2.user_id = ?";
+                    "JOIN users u ON u.user_id = f1.friend_id " +
+                    "WHERE f1.user_id = ? AND f2.user_id = ? " +
+                    "ORDER BY u.user_id";
 
-    public FriendshipDbStorage(JdbcTemplate jdbc, RowMapper<Friendship> mapper, UserDbStorage userStorage) {
+    private static final String EXPORT_ALL_QUERY = "SELECT user_id, friend_id FROM friendship";
+
+    public FriendshipDbStorage(JdbcTemplate jdbc, RowMapper<Friendship> mapper, RowMapper<User> userMapper,
+                               FriendsCache friendsCache) {
         super(jdbc, mapper);
-        this.userStorage = userStorage;
+        this.userMapper = userMapper;
+        this.friendsCache = friendsCache;
     }
 
-    // Добавление друга
+    // Идемпотентное добавление друга одним запросом к friendship, строки users не изменяются.
+    // Существование пользователей проверяют внешние ключи. Возвращает true, если дружба действительно добавлена
     @Override
-    public void addFriend(Long userId, Long friendId) {
-        update(INSERT_QUERY, userId, friendId);
+    public boolean addFriend(Long userId, Long friendId) {
+        int rowsInserted;
+        try {
+            rowsInserted = jdbc.update(MERGE_QUERY, userId, friendId);
+        } catch (DuplicateKeyException e) {
+            // Параллельный запрос успел вставить ту же пару раньше
+            log.debug("Пользователь с Id:{} уже добавил в друзья пользователя с Id:{} параллельно", userId, friendId);
+            return false;
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Не удалось добавить дружбу {} -> {}: пользователь не существует", userId, friendId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+
+        if (rowsInserted == 0) {
+            return false;
+        }
+        friendsCache.addFriend(userId, friendId);
+        return true;
     }
 
-    // Удаление друга
+    // Идемпотентное удаление друга одним запросом к friendship.
+    // Возвращает true, если дружба действительно удалена
     @Override
-    public void removeFriend(Long userId, Long friendId) {
-        update(DELETE_QUERY, userId, friendId);
+    public boolean removeFriend(Long userId, Long friendId) {
+        if (jdbc.update(DELETE_QUERY, userId, friendId) == 0) {
+            return false;
+        }
+        friendsCache.removeFriend(userId, friendId);
+        return true;
     }
 
-    // Получение всех друзей пользователя
+    // Получение всех друзей пользователя одним запросом
     @Override
     public Collection<User> findAllFriends(Long userId) {
-        return findMany(FIND_FRIENDS_QUERY, userId).stream()
-                .map(friendship -> userStorage.findById(friendship.getFriendId()))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+        return findUsers(FIND_FRIENDS_QUERY, userId);
     }
 
-    // Получение общих друзей
+    // Получение общих друзей одним запросом: пересечение списков друзей по индексу friendship
+    // сразу соединяется с users, поэтому стоимость зависит только от числа друзей двух пользователей
     @Override
     public Collection<User> findCommonFriends(Long userId, Long otherId) {
-        return findMany(FIND_COMMON_FRIENDS_QUERY, userId, otherId).stream()
-                .map(friendship -> userStorage.findById(friendship.getFriendId()))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+        return findUsers(FIND_COMMON_FRIENDS_QUERY, userId, otherId);
+    }
+
+    // Потоковая выгрузка всех связей дружбы без накопления списка в памяти
+    @Override
+    public void exportAll(Consumer<Friendship> consumer) {
+        jdbc.query(EXPORT_ALL_QUERY, rs -> {
+            consumer.accept(mapper.mapRow(rs, rs.getRow()));
+        });
+    }
+
+    // Вспомогательный метод для загрузки пользователей из списков друзей.
+    // Собственные списки друзей этих пользователей не загружаются и в ответ не попадают
+    private List<User> findUsers(String query, Object... params) {
+        List<User> users = jdbc.query(query, userMapper, params);
+        users.forEach(user -> user.setFriends(null));
+        return users;
     }
 }
\ No newline at end of file
@@ -1,42 +1,79 @@
 package ru.yandex.practicum.filmorate.dal;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.storage.GenreStorage;
 
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
 
 @Slf4j
 @Repository
 public class GenreDbStorage extends BaseDbStorage<Genre> implements GenreStorage {
 
-    private static final String FIND_ALL_GENRES_QUERY = "SELECT genre_id, name FROM genre";
-    private static final String FIND_BY_ID_QUERY = "SELECT genre_id, name FROM genre WHERE genre_id = ?";
+    private static final String FIND_ALL_GENRES_QUERY = "SELECT genre_id, name FROM genre ORDER BY genre_id";
     private static final String FIND_GENRE_FOR_FILM_QUERY = "SELECT g.genre_id, g.name FROM genre As g " +
             "INNER JOIN film_genres AS fg ON g.genre_id = fg.genre_id " +
             "WHERE fg.film_id = ?";
+    private static final String FIND_GENRES_FOR_ALL_FILMS_QUERY = "SELECT fg.film_id, g.genre_id, g.name " +
+            "FROM genre AS g " +
+            "INNER JOIN film_genres AS fg ON g.genre_id = fg.genre_id " +
+            "ORDER BY fg.film_id, g.genre_id";
+    private static final String FIND_GENRES_FOR_FILMS_QUERY = "SELECT fg.film_id, g.genre_id, g.name " +
+            "FROM genre AS g " +
+            "INNER JOIN film_genres AS fg ON g.genre_id = fg.genre_id " +
+            "WHERE fg.film_id IN (%s) " +
+            "ORDER BY fg.film_id, g.genre_id";
     private static final String INSERT_GENRES_FOR_FILM_QUERY = "INSERT INTO film_genres (film_id, genre_id) " +
             "VALUES(?, ?)";
-    private static final String DELETE_ALL_GENRES_FOR_FILM_QUERY = "DELETE FROM film_genres WHERE film_id = ?";
+    private static final String FIND_GENRE_IDS_FOR_FILM_QUERY = "SELECT genre_id FROM film_genres WHERE film_id = ?";
+    private static final String DELETE_GENRES_FOR_FILM_QUERY = "DELETE FROM film_genres " +
+            "WHERE film_id = ? AND genre_id IN (%s)";
+
+    // Снимок справочника жанров. Таблица genre маленькая и меняется только через data.sql,
+    // поэтому она целиком читается при старте приложения и подменяется атомарно при перезагрузке
+    private volatile Snapshot snapshot;
 
     public GenreDbStorage(JdbcTemplate jdbc, RowMapper<Genre> mapper) {
         super(jdbc, mapper);
     }
 
+    // Загрузка снимка справочника при старте приложения
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
     // Получение всех жанров
     @Override
     public Collection<Genre> findAllGenres() {
-        return findMany(FIND_ALL_GENRES_QUERY);
+        return snapshot.all();
     }
 
     // Получение жанра по id
     @Override
     public Optional<Genre> findById(Long genreId) {
-        return findOne(FIND_BY_ID_QUERY, genreId);
+        Genre[] byId = snapshot.byId();
+        if (genreId == null || genreId < 0 || genreId >= byId.length) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byId[genreId.intValue()]);
+    }
+
+    // Перечитывание справочника жанров из БД
+    @Override
+    public void reload() {
+        List<Genre> genres = findMany(FIND_ALL_GENRES_QUERY);
+        int size = genres.isEmpty() ? 0 : genres.get(genres.size() - 1).getId().intValue() + 1;
+        Genre[] byId = new Genre[size];
+        genres.forEach(genre -> byId[genre.getId().intValue()] = genre);
+        snapshot = new Snapshot(byId, List.copyOf(genres));
+        log.info("Справочник жанров загружен, жанров: {}", genres.size());
     }
 
     // Получение жанров для указанного фильма
@@ -45,20 +82,80 @@ public class GenreDbStorage extends BaseDbStorage<Genre> implements GenreStorage
         return findMany(FIND_GENRE_FOR_FILM_QUERY, filmId);
     }
 
-    // Добавление жанра для фильма
+    // Получение жанров для набора фильмов. Большой набор id читается частями по MAX_IN_PARAMS
+    @Override
+    public Map<Long, Set<Genre>> findGenresForFilms(Collection<Long> filmIds) {
+        Map<Long, Set<Genre>> genres = new HashMap<>();
+        queryInChunks(FIND_GENRES_FOR_FILMS_QUERY, filmIds, rs -> {
+            genres.computeIfAbsent(rs.getLong("film_id"), id -> new LinkedHashSet<>())
+                    .add(mapper.mapRow(rs, rs.getRow()));
+        });
+        return genres;
+    }
+
+    // Получение жанров всех фильмов одним запросом без списка id
     @Override
+    public Map<Long, Set<Genre>> findGenresForAllFilms() {
+        Map<Long, Set<Genre>> genres = new HashMap<>();
+        jdbc.query(FIND_GENRES_FOR_ALL_FILMS_QUERY, rs -> {
+            genres.computeIfAbsent(rs.getLong("film_id"), id -> new LinkedHashSet<>())
+                    .add(mapper.mapRow(rs, rs.getRow()));
+        });
+        return genres;
+    }
+
+    // Установка жанров фильма. Текущие связи сравниваются с новыми, и в БД пишется только разница:
+    // удаление лишних одним запросом и добавление недостающих одним пакетом
+    @Override
+    @Transactional
     public void setGenreForFilm(Long filmId, Collection<Genre> genres) {
         if (genres == null) {
             return;
         }
 
-        // Удаление всех текущих жанров
-        jdbc.update(DELETE_ALL_GENRES_FOR_FILM_QUERY, filmId);
+        Set<Long> newGenreIds = new LinkedHashSet<>();
+        genres.forEach(genre -> newGenreIds.add(genre.getId()));
+        Set<Long> currentGenreIds = new HashSet<>(
+                jdbc.queryForList(FIND_GENRE_IDS_FOR_FILM_QUERY, Long.class, filmId));
+
+        List<Long> toDelete = currentGenreIds.stream()
+                .filter(genreId -> !newGenreIds.contains(genreId))
+                .toList();
+        List<Object[]> toInsert = newGenreIds.stream()
+                .filter(genreId -> !currentGenreIds.contains(genreId))
+                .map(genreId -> new Object[]{filmId, genreId})
+                .toList();
+
+        if (!toDelete.isEmpty()) {
+            List<Object> params = new ArrayList<>(toDelete.size() + 1);
+            params.add(filmId);
+            params.addAll(toDelete);
+            jdbc.update(String.format(DELETE_GENRES_FOR_FILM_QUERY, placeholders(toDelete.size())), params.toArray());
+        }
+        if (!toInsert.isEmpty()) {
+            jdbc.batchUpdate(INSERT_GENRES_FOR_FILM_QUERY, toInsert);
+        }
+    }
+
+    // Добавление жанров сразу для набора новых фильмов одним пакетом
+    @Override
+    public void addGenresForFilms(Collection<Film> films) {
+        List<Object[]> links = new ArrayList<>();
+        for (Film film : films) {
+            if (film.getGenres() == null) {
+                continue;
+            }
+            film.getGenres().stream()
+                    .map(Genre::getId)
+                    .distinct()
+                    .forEach(genreId -> links.add(new Object[]{film.getId(), genreId}));
+        }
 
-        // Добавление новых жанров
-        for (Genre genre : genres) {
-            jdbc.update(INSERT_GENRES_FOR_FILM_QUERY,
-                    filmId, genre.getId());
+        if (!links.isEmpty()) {
+            jdbc.batchUpdate(INSERT_GENRES_FOR_FILM_QUERY, links);
         }
     }
-}
\ No newline at end of file
+
+    private record Snapshot(Genre[] byId, List<Genre> all) {
+    }
+}
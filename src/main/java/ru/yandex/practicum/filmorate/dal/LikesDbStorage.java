@@ -1,36 +1,117 @@
 package ru.yandex.practicum.filmorate.dal;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Likes;
 import ru.yandex.practicum.filmorate.storage.LikesStorage;
 
-import java.util.Collection;
+import java.util.*;
+import java.util.function.Consumer;
 
 @Slf4j
 @Repository
 public class LikesDbStorage extends BaseDbStorage<Likes> implements LikesStorage {
 
-    private static final String INSERT_QUERY = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
     private static final String DELETE_QUERY = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
+    private static final String MERGE_QUERY = "MERGE INTO likes AS l " +
+            "USING (VALUES (CAST(? AS BIGINT), CAST(? AS BIGINT))) AS s (film_id, user_id) " +
+            "ON l.film_id = s.film_id AND l.user_id = s.user_id " +
+            "WHEN NOT MATCHED THEN INSERT (film_id, user_id) VALUES (s.film_id, s.user_id)";
+    private static final String CHANGE_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = likes_count + ? " +
+            "WHERE film_id = ?";
+    private static final String INCREMENT_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = likes_count + 1 " +
+            "WHERE film_id = ?";
+    private static final String DECREMENT_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = likes_count - 1 " +
+            "WHERE film_id = ?";
+    private static final String FILM_AND_USER_EXIST_QUERY = "SELECT " +
+            "EXISTS (SELECT 1 FROM films WHERE film_id = ?) AS film_exists, " +
+            "EXISTS (SELECT 1 FROM users WHERE user_id = ?) AS user_exists";
     private static final String FIND_LIKES_ON_FILM_QUERY = "SELECT film_id, user_id FROM likes WHERE film_id = ?";
+    private static final String FIND_LIKES_ON_FILMS_QUERY = "SELECT film_id, user_id FROM likes WHERE film_id IN (%s)";
+    private static final String FIND_LIKES_ON_ALL_FILMS_QUERY = "SELECT film_id, user_id FROM likes";
+    private static final String COUNT_LIKES_BY_FILM_QUERY = "SELECT f.film_id, COUNT(l.user_id) AS likes " +
+            "FROM films AS f " +
+            "LEFT JOIN likes AS l ON f.film_id = l.film_id " +
+            "GROUP BY f.film_id";
+
+    private static final String FIND_FILMS_LIKED_BY_USER_QUERY = "SELECT film_id FROM likes " +
+            "WHERE user_id = ? AND film_id > ? " +
+            "ORDER BY film_id " +
+            "LIMIT ?";
+    private static final String FIND_FILMS_LIKED_BY_FRIENDS_QUERY = "SELECT l.film_id, COUNT(*) AS friends_liked " +
+            "FROM friendship AS fr " +
+            "INNER JOIN likes AS l ON l.user_id = fr.friend_id " +
+            "WHERE fr.user_id = ? " +
+            "GROUP BY l.film_id " +
+            "ORDER BY friends_liked DESC, l.film_id " +
+            "LIMIT ?";
+    private static final String EXPORT_ALL_QUERY = "SELECT film_id, user_id FROM likes";
 
     public LikesDbStorage(JdbcTemplate jdbc, RowMapper<Likes> mapper) {
         super(jdbc, mapper);
     }
 
-    // Добавление лайка фильму
+    // Идемпотентное добавление лайка: MERGE не трогает существующую строку, счетчик увеличивается только
+    // для новой. Существование фильма и пользователя проверяют внешние ключи, поэтому обычно это два запроса.
+    // Возвращает true, если лайк действительно добавлен
+    @Override
+    @Transactional
+    public boolean addLikeToFilm(Long filmId, Long userId) {
+        int rowsInserted;
+        try {
+            rowsInserted = jdbc.update(MERGE_QUERY, filmId, userId);
+        } catch (DuplicateKeyException e) {
+            // Параллельный запрос успел вставить ту же пару раньше
+            log.debug("Лайк фильму с Id:{} от пользователя с Id:{} уже добавлен параллельно", filmId, userId);
+            return false;
+        } catch (DataIntegrityViolationException e) {
+            checkFilmAndUserExist(filmId, userId);
+            throw e;
+        }
+
+        if (rowsInserted == 0) {
+            return false;
+        }
+        update(INCREMENT_LIKES_COUNT_QUERY, filmId);
+        return true;
+    }
+
+    // Идемпотентное удаление лайка вместе с уменьшением счетчика лайков в одной транзакции.
+    // Если удалять нечего, одним запросом проверяется существование фильма и пользователя.
+    // Возвращает true, если лайк действительно удален
     @Override
-    public void addLikeToFilm(Long filmId, Long userId) {
-        update(INSERT_QUERY, filmId, userId);
+    @Transactional
+    public boolean removeLikeFromFilm(Long filmId, Long userId) {
+        if (jdbc.update(DELETE_QUERY, filmId, userId) == 0) {
+            checkFilmAndUserExist(filmId, userId);
+            return false;
+        }
+        update(DECREMENT_LIKES_COUNT_QUERY, filmId);
+        return true;
     }
 
-    // Удаление лайка у фильма
+    // Пакетное добавление лайков. Уже существующие лайки пропускаются, возвращаются только добавленные
     @Override
-    public void removeLikeFromFilm(Long filmId, Long userId) {
-        update(DELETE_QUERY, filmId, userId);
+    @Transactional
+    public List<Likes> addLikesBatch(Collection<Likes> likes) {
+        List<Likes> added = applyBatch(MERGE_QUERY, likes);
+        changeLikesCounts(added, 1);
+        return added;
+    }
+
+    // Пакетное удаление лайков. Возвращаются только лайки, которые действительно были удалены
+    @Override
+    @Transactional
+    public List<Likes> removeLikesBatch(Collection<Likes> likes) {
+        List<Likes> removed = applyBatch(DELETE_QUERY, likes);
+        changeLikesCounts(removed, -1);
+        return removed;
     }
 
     // Получение всех лайков фильма
@@ -38,4 +119,110 @@ public class LikesDbStorage extends BaseDbStorage<Likes> implements LikesStorage
     public Collection<Likes> getLikesOnFilm(Long filmId) {
         return findMany(FIND_LIKES_ON_FILM_QUERY, filmId);
     }
+
+    // Получение лайков для набора фильмов. Большой набор id читается частями по MAX_IN_PARAMS
+    @Override
+    public Map<Long, Set<Long>> getLikesOnFilms(Collection<Long> filmIds) {
+        Map<Long, Set<Long>> likes = new HashMap<>();
+        queryInChunks(FIND_LIKES_ON_FILMS_QUERY, filmIds, rs -> {
+            likes.computeIfAbsent(rs.getLong("film_id"), id -> new HashSet<>())
+                    .add(rs.getLong("user_id"));
+        });
+        return likes;
+    }
+
+    // Получение лайков всех фильмов одним запросом без списка id
+    @Override
+    public Map<Long, Set<Long>> getLikesOnAllFilms() {
+        Map<Long, Set<Long>> likes = new HashMap<>();
+        jdbc.query(FIND_LIKES_ON_ALL_FILMS_QUERY, rs -> {
+            likes.computeIfAbsent(rs.getLong("film_id"), id -> new HashSet<>())
+                    .add(rs.getLong("user_id"));
+        });
+        return likes;
+    }
+
+    // Подсчет лайков по таблице likes для всех фильмов, включая фильмы без лайков
+    @Override
+    public Map<Long, Long> countLikesByFilm() {
+        Map<Long, Long> counts = new HashMap<>();
+        jdbc.query(COUNT_LIKES_BY_FILM_QUERY, rs -> {
+            counts.put(rs.getLong("film_id"), rs.getLong("likes"));
+        });
+        return counts;
+    }
+
+    // Страница id фильмов, лайкнутых пользователем, с id больше afterFilmId.
+    // Читается диапазон индекса likes (user_id, film_id) без сортировки и без просмотра чужих лайков
+    @Override
+    public List<Long> findFilmsLikedByUser(Long userId, long afterFilmId, int limit) {
+        return jdbc.query(FIND_FILMS_LIKED_BY_USER_QUERY,
+                (rs, rowNum) -> rs.getLong("film_id"), userId, afterFilmId, limit);
+    }
+
+    // Id фильмов, которые лайкнули друзья пользователя, по убыванию числа таких друзей.
+    // Один запрос: друзья берутся по первичному ключу friendship, их лайки - по индексу likes (user_id, film_id),
+    // поэтому объем работы зависит от числа лайков друзей, а не от размера каталога
+    @Override
+    public List<Long> findFilmsLikedByFriends(Long userId, int limit) {
+        return jdbc.query(FIND_FILMS_LIKED_BY_FRIENDS_QUERY,
+                (rs, rowNum) -> rs.getLong("film_id"), userId, limit);
+    }
+
+    // Потоковая выгрузка всех лайков без накопления списка в памяти
+    @Override
+    public void exportAll(Consumer<Likes> consumer) {
+        jdbc.query(EXPORT_ALL_QUERY, rs -> {
+            consumer.accept(mapper.mapRow(rs, rs.getRow()));
+        });
+    }
+
+    // Вспомогательный метод для проверки существования фильма и пользователя одним запросом
+    private void checkFilmAndUserExist(Long filmId, Long userId) {
+        jdbc.query(FILM_AND_USER_EXIST_QUERY, rs -> {
+            if (!rs.getBoolean("film_exists")) {
+                log.warn("Фильм с Id:{} не найден", filmId);
+                throw new NotFoundException("Фильм не найден");
+            }
+            if (!rs.getBoolean("user_exists")) {
+                log.warn("Пользователь с Id:{} не найден", userId);
+                throw new NotFoundException("Пользователь не найден");
+            }
+        }, filmId, userId);
+    }
+
+    // Вспомогательный метод для выполнения пакета запросов по парам (film_id, user_id)
+    private List<Likes> applyBatch(String query, Collection<Likes> likes) {
+        if (likes.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Likes> batch = new ArrayList<>(likes);
+        List<Object[]> args = batch.stream()
+                .map(like -> new Object[]{like.getFilmId(), like.getUserId()})
+                .toList();
+        int[] rows = jdbc.batchUpdate(query, args);
+
+        List<Likes> changed = new ArrayList<>();
+        for (int idx = 0; idx < rows.length; idx++) {
+            if (rows[idx] > 0) {
+                changed.add(batch.get(idx));
+            }
+        }
+        return changed;
+    }
+
+    // Вспомогательный метод для пакетного изменения счетчиков лайков у фильмов
+    private void changeLikesCounts(Collection<Likes> likes, int sign) {
+        Map<Long, Long> deltas = new HashMap<>();
+        likes.forEach(like -> deltas.merge(like.getFilmId(), (long) sign, Long::sum));
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> args = deltas.entrySet().stream()
+                .map(entry -> new Object[]{entry.getValue(), entry.getKey()})
+                .toList();
+        jdbc.batchUpdate(CHANGE_LIKES_COUNT_QUERY, args);
+    }
 }
\ No newline at end of file
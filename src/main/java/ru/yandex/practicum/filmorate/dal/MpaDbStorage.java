@@ -1,5 +1,6 @@
 package ru.yandex.practicum.filmorate.dal;
 
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -8,32 +9,56 @@ import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.storage.MpaStorage;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Slf4j
 @Repository
 public class MpaDbStorage extends BaseDbStorage<Mpa> implements MpaStorage {
 
-    private static final String FIND_ALL_MPA_QUERY = "SELECT rating_id, name FROM mpa_rating";
-    private static final String FIND_BY_ID_QUERY = "SELECT rating_id, name FROM mpa_rating WHERE rating_id = ?";
+    private static final String FIND_ALL_MPA_QUERY = "SELECT rating_id, name FROM mpa_rating ORDER BY rating_id";
     private static final String FIND_MPA_FILM_QUERY = "SELECT m.rating_id, m.name FROM films AS f " +
             "INNER JOIN mpa_rating AS m ON f.rating_id = m.rating_id " +
             "WHERE f.film_id = ?";
 
+    // Снимок справочника рейтингов MPA, читается при старте приложения и подменяется атомарно при перезагрузке
+    private volatile Snapshot snapshot;
+
     public MpaDbStorage(JdbcTemplate jdbc, RowMapper<Mpa> mapper) {
         super(jdbc, mapper);
     }
 
+    // Загрузка снимка справочника при старте приложения
+    @PostConstruct
+    public void init() {
+        reload();
+    }
+
     // Получение всех рейтингов
     @Override
     public Collection<Mpa> findAll() {
-        return findMany(FIND_ALL_MPA_QUERY);
+        return snapshot.all();
     }
 
     // Получение рейтинга по его id
     @Override
     public Optional<Mpa> findMpaById(Long ratingId) {
-        return findOne(FIND_BY_ID_QUERY, ratingId);
+        Mpa[] byId = snapshot.byId();
+        if (ratingId == null || ratingId < 0 || ratingId >= byId.length) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(byId[ratingId.intValue()]);
+    }
+
+    // Перечитывание справочника рейтингов из БД
+    @Override
+    public void reload() {
+        List<Mpa> ratings = findMany(FIND_ALL_MPA_QUERY);
+        int size = ratings.isEmpty() ? 0 : ratings.get(ratings.size() - 1).getId().intValue() + 1;
+        Mpa[] byId = new Mpa[size];
+        ratings.forEach(mpa -> byId[mpa.getId().intValue()] = mpa);
+        snapshot = new Snapshot(byId, List.copyOf(ratings));
+        log.info("Справочник рейтингов MPA загружен, рейтингов: {}", ratings.size());
     }
 
     // Получение рейтинга для фильма
@@ -41,4 +66,7 @@ public class MpaDbStorage extends BaseDbStorage<Mpa> implements MpaStorage {
     public Optional<Mpa> findMpaFilm(Long filmId) {
         return findOne(FIND_MPA_FILM_QUERY, filmId);
     }
-}
\ No newline at end of file
+
+    private record Snapshot(Mpa[] byId, List<Mpa> all) {
+    }
+}
@@ -2,14 +2,18 @@ package ru.yandex.practicum.filmorate.dal;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.cache.ExistenceCache;
+import ru.yandex.practicum.filmorate.cache.FriendsCache;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.utils.SortedLongArrays;
+import ru.yandex.practicum.filmorate.utils.SortedLongSet;
 
-import java.util.Collection;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.*;
 
 @Slf4j
 @Repository
@@ -18,17 +22,37 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
     private static final String INSERT_QUERY = "INSERT INTO users(email, login, name, birthday) " +
             "VALUES(?, ?, ?, ?)";
     private static final String DELETE_QUERY = "DELETE FROM users WHERE user_id = ?";
+    // Лайки пользователя удаляются каскадно, поэтому счетчики лайков его фильмов уменьшаются заранее
+    private static final String DECREMENT_LIKES_COUNT_QUERY = "UPDATE films SET likes_count = likes_count - 1 " +
+            "WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?)";
     private static final String UPDATE_QUERY = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? " +
             "WHERE user_id = ?";
     private static final String FIND_BY_ID_QUERY = "SELECT user_id, email, login, name, birthday " +
             "FROM users " +
             "WHERE user_id = ?";
     private static final String FIND_ALL_USERS_QUERY = "SELECT user_id, email, login, name, birthday FROM users";
-    private static final String FIND_FRIENDS_QUERY = "SELECT user_id, email, login, name, birthday FROM users " +
-            "WHERE user_id IN(SELECT friend_id FROM friendship WHERE user_id = ?)";
+    private static final String FIND_PAGE_QUERY = FIND_ALL_USERS_QUERY + " WHERE user_id > ? " +
+            "ORDER BY user_id " +
+            "LIMIT ?";
+    private static final String EXISTS_QUERY = "SELECT EXISTS (SELECT 1 FROM users WHERE user_id = ?)";
+    private static final String FIND_EXISTING_IDS_QUERY = "SELECT user_id FROM users WHERE user_id IN (%s)";
+    private static final int EXISTENCE_CACHE_SIZE = 100_000;
+    private static final String FIND_FRIEND_IDS_QUERY = "SELECT friend_id FROM friendship " +
+            "WHERE user_id = ? " +
+            "ORDER BY friend_id";
 
-    public UserDbStorage(JdbcTemplate jdbc, RowMapper<User> mapper) {
+    private static final String FIND_FRIEND_IDS_FOR_USERS_QUERY = "SELECT user_id, friend_id FROM friendship " +
+            "WHERE user_id IN (%s) " +
+            "ORDER BY user_id, friend_id";
+    private static final String FIND_ALL_FRIEND_IDS_QUERY = "SELECT user_id, friend_id FROM friendship " +
+            "ORDER BY user_id, friend_id";
+
+    private final FriendsCache friendsCache;
+    private final ExistenceCache existenceCache = new ExistenceCache(EXISTENCE_CACHE_SIZE);
+
+    public UserDbStorage(JdbcTemplate jdbc, RowMapper<User> mapper, FriendsCache friendsCache) {
         super(jdbc, mapper);
+        this.friendsCache = friendsCache;
     }
 
     // Добавление пользователя
@@ -42,13 +66,34 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
                 user.getBirthday()
         );
         user.setId(id);
+        existenceCache.invalidate(id);
         return user;
     }
 
-    // Удаление пользователя
+    // Пакетное добавление пользователей одним пакетом JDBC
+    @Override
+    @Transactional
+    public List<User> createBatch(List<User> users) {
+        List<Object[]> rows = users.stream()
+                .map(user -> new Object[]{user.getEmail(), user.getLogin(), user.getName(), user.getBirthday()})
+                .toList();
+        List<Long> ids = insertBatch(INSERT_QUERY, rows);
+        for (int idx = 0; idx < users.size(); idx++) {
+            users.get(idx).setId(ids.get(idx));
+            existenceCache.invalidate(ids.get(idx));
+        }
+        return users;
+    }
+
+    // Удаление пользователя вместе с уменьшением счетчиков лайков фильмов, которые он лайкал
     @Override
+    @Transactional
     public void delete(Long id) {
+        jdbc.update(DECREMENT_LIKES_COUNT_QUERY, id);
         delete(DELETE_QUERY, id);
+        existenceCache.invalidate(id);
+        // id удаленного пользователя может оставаться в чужих списках друзей
+        friendsCache.invalidateAll();
     }
 
     // Изменение пользователя
@@ -65,16 +110,23 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
         return user;
     }
 
+    // Проверка существования пользователя без загрузки его данных
+    @Override
+    public boolean exists(Long userId) {
+        return exists(existenceCache, EXISTS_QUERY, userId);
+    }
+
+    // Проверка существования всех пользователей из списка
+    @Override
+    public boolean existsAll(Collection<Long> userIds) {
+        return existsAll(existenceCache, FIND_EXISTING_IDS_QUERY, userIds);
+    }
+
     // Получение пользователя по id
     @Override
     public Optional<User> findById(Long id) {
         Optional<User> user = findOne(FIND_BY_ID_QUERY, id);
-        user.ifPresent(value -> value.setFriends(
-                findMany(FIND_FRIENDS_QUERY, value.getId())
-                        .stream()
-                        .map(User::getId)
-                        .collect(Collectors.toSet())
-        ));
+        user.ifPresent(value -> value.setFriends(new SortedLongSet(findFriendIds(value.getId()))));
         return user;
     }
 
@@ -82,20 +134,50 @@ public class UserDbStorage extends BaseDbStorage<User> implements UserStorage {
     @Override
     public Collection<User> findAll() {
         Collection<User> users = findMany(FIND_ALL_USERS_QUERY);
+        loadFriends(users, true);
+        return users;
+    }
 
-        if (users.isEmpty()) {
-            return users;
-        }
+    // Получение страницы пользователей с id больше afterId
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        List<User> users = findMany(FIND_PAGE_QUERY, afterId, limit);
+        loadFriends(users, false);
+        return users;
+    }
 
-        users.forEach(user -> {
-            user.setFriends(
-                    findMany(FIND_FRIENDS_QUERY, user.getId())
-                            .stream()
-                            .map(User::getId)
-                            .collect(Collectors.toSet())
-            );
-        });
+    // Получение отсортированных id друзей пользователя из кэша, при промахе - из БД
+    public long[] findFriendIds(Long userId) {
+        return friendsCache.getFriends(userId, id -> jdbc.queryForList(FIND_FRIEND_IDS_QUERY, Long.class, id)
+                .stream()
+                .mapToLong(Long::longValue)
+                .toArray());
+    }
 
-        return users;
+    // Вспомогательный метод для загрузки друзей набора пользователей. Списки, которых нет в кэше,
+    // читаются одним запросом: для всех пользователей - по всей таблице friendship, иначе - по их id
+    private void loadFriends(Collection<User> users, boolean allUsers) {
+        List<Long> missing = users.stream()
+                .map(User::getId)
+                .filter(id -> !friendsCache.contains(id))
+                .toList();
+
+        if (!missing.isEmpty()) {
+            long version = friendsCache.version();
+            Map<Long, List<Long>> friendIds = new HashMap<>();
+            RowCallbackHandler handler = rs -> friendIds
+                    .computeIfAbsent(rs.getLong("user_id"), id -> new ArrayList<>())
+                    .add(rs.getLong("friend_id"));
+            if (allUsers) {
+                jdbc.query(FIND_ALL_FRIEND_IDS_QUERY, handler);
+            } else {
+                jdbc.query(String.format(FIND_FRIEND_IDS_FOR_USERS_QUERY, placeholders(missing.size())),
+                        handler, missing.toArray());
+            }
+            missing.forEach(id -> friendsCache.putIfUnchanged(id,
+                    SortedLongArrays.of(friendIds.getOrDefault(id, List.of())), version));
+        }
+
+        users.forEach(user -> user.setFriends(new SortedLongSet(findFriendIds(user.getId()))));
     }
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ public class FilmRowMapper implements RowMapper<Film> {
         film.setDescription(rs.getString("description"));
         film.setReleaseDate(rs.getDate("release_date").toLocalDate());
         film.setDuration(rs.getInt("duration"));
+        film.setLikesCount(rs.getLong("likes_count"));
 
         Mpa mpa = new Mpa();
         mpa.setId(rs.getLong("rating_id"));
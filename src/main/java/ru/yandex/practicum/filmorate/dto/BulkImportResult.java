@@ -0,0 +1,36 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Итог пакетной загрузки: счетчики по всем строкам, id созданной записи по каждой сохраненной строке
+// и причина ошибки по каждой ошибочной. Загрузка пользователей id созданных записей не возвращает
+@Data
+public class BulkImportResult {
+
+    private long total;
+    private long created;
+    private long failed;
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<BulkItemResult> createdItems = new ArrayList<>();
+    private List<BulkItemResult> failedItems = new ArrayList<>();
+
+    public void addCreated() {
+        total++;
+        created++;
+    }
+
+    public void addCreated(long line, Long id) {
+        addCreated();
+        createdItems.add(new BulkItemResult(line, id, null));
+    }
+
+    public void addFailed(long line, String error) {
+        total++;
+        failed++;
+        failedItems.add(new BulkItemResult(line, null, error));
+    }
+}
@@ -1,5 +1,7 @@
 package ru.yandex.practicum.filmorate.dto;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 import ru.yandex.practicum.filmorate.model.*;
@@ -8,8 +10,11 @@ import java.time.LocalDate;
 import java.util.Set;
 
 @Data
+@JsonFilter(FilmDto.FIELDS_FILTER)
 public class FilmDto {
 
+    public static final String FIELDS_FILTER = "filmFields";
+
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private Long id;
     private String name;
@@ -18,7 +23,10 @@ public class FilmDto {
     private Integer duration;
     private Mpa mpa;
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Set<Long> likesByUsers;
     @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long likesCount;
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private Set<Genre> genres;
 }
\ No newline at end of file
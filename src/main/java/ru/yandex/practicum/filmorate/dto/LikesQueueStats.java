@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LikesQueueStats {
+
+    private boolean enabled;
+    private int queueDepth;
+    private long flushes;
+    private long appliedChanges;
+    private long droppedChanges;
+    private long lastFlushMillis;
+    private long maxFlushMillis;
+}
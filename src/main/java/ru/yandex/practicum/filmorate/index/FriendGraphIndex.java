@@ -0,0 +1,205 @@
+package ru.yandex.practicum.filmorate.index;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
+import ru.yandex.practicum.filmorate.storage.FriendshipStorage;
+import ru.yandex.practicum.filmorate.utils.SortedLongArrays;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Граф дружбы в памяти для рекомендаций "друзья друзей".
+ * Базовый граф хранится в формате CSR: отсортированный массив id пользователей, массив смещений
+ * и общий массив id соседей - отдельно для исходящих (кого добавил пользователь) и входящих (кто добавил его) связей.
+ * Изменения после построения попадают в оверлей со списками соседей измененных пользователей,
+ * разросшийся оверлей вливается в новый базовый граф
+ */
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FriendGraphIndex {
+
+    // Когда в оверлее набирается столько пользователей, он вливается в базовый граф
+    private static final int MAX_OVERLAY_SIZE = 10_000;
+
+    private final FriendshipStorage friendshipStorage;
+
+    private volatile Adjacency outgoing = new Adjacency(Csr.EMPTY);
+    private volatile Adjacency incoming = new Adjacency(Csr.EMPTY);
+
+    // Построение графа из таблицы friendship при старте приложения
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    // Полное перестроение графа по данным хранилища
+    public synchronized void rebuild() {
+        LongPairBuffer pairs = new LongPairBuffer();
+        friendshipStorage.exportAll(friendship -> pairs.add(friendship.getUserId(), friendship.getFriendId()));
+        outgoing = new Adjacency(Csr.of(pairs.groupBySource()));
+        incoming = new Adjacency(Csr.of(pairs.groupByTarget()));
+        log.info("Граф дружбы построен, связей: {}", pairs.size());
+    }
+
+    // Добавление связи "пользователь добавил друга"
+    public synchronized void addFriend(Long userId, Long friendId) {
+        outgoing.update(userId, friends -> SortedLongArrays.insert(friends, friendId));
+        incoming.update(friendId, followers -> SortedLongArrays.insert(followers, userId));
+        compactIfNeeded();
+    }
+
+    // Удаление связи "пользователь добавил друга"
+    public synchronized void removeFriend(Long userId, Long friendId) {
+        outgoing.update(userId, friends -> SortedLongArrays.remove(friends, friendId));
+        incoming.update(friendId, followers -> SortedLongArrays.remove(followers, userId));
+        compactIfNeeded();
+    }
+
+    // Удаление пользователя вместе со всеми его связями в обе стороны
+    public synchronized void removeUser(Long userId) {
+        Segment friends = outgoing.neighbors(userId);
+        for (int idx = 0; idx < friends.size(); idx++) {
+            incoming.update(friends.get(idx), followers -> SortedLongArrays.remove(followers, userId));
+        }
+        Segment followers = incoming.neighbors(userId);
+        for (int idx = 0; idx < followers.size(); idx++) {
+            outgoing.update(followers.get(idx), userFriends -> SortedLongArrays.remove(userFriends, userId));
+        }
+        outgoing.update(userId, ignored -> SortedLongArrays.EMPTY);
+        incoming.update(userId, ignored -> SortedLongArrays.EMPTY);
+        compactIfNeeded();
+    }
+
+    // Подбор до limit пользователей, которые еще не в друзьях, по убыванию количества общих друзей.
+    // Общие друзья считаются так же, как в запросе общих друзей: кандидат добавил в друзья тех же, кого и пользователь.
+    // Для каждого друга пользователя просматриваются только те, кто его добавил, поэтому стоимость не зависит
+    // от общего числа пользователей
+    public List<FriendSuggestionDto> findSuggestions(Long userId, int limit) {
+        Adjacency out = outgoing;
+        Adjacency in = incoming;
+
+        Segment friends = out.neighbors(userId);
+        Map<Long, Integer> mutualFriends = new HashMap<>();
+        for (int idx = 0; idx < friends.size(); idx++) {
+            Segment followers = in.neighbors(friends.get(idx));
+            for (int pos = 0; pos < followers.size(); pos++) {
+                long candidate = followers.get(pos);
+                if (candidate != userId && !friends.contains(candidate)) {
+                    mutualFriends.merge(candidate, 1, Integer::sum);
+                }
+            }
+        }
+
+        return ScoreRanking.top(mutualFriends, limit).stream()
+                .map(entry -> new FriendSuggestionDto(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    // Вспомогательный метод для вливания разросшегося оверлея в базовый граф
+    private void compactIfNeeded() {
+        if (outgoing.overlay.size() + incoming.overlay.size() > MAX_OVERLAY_SIZE) {
+            outgoing = outgoing.compact();
+            incoming = incoming.compact();
+            log.debug("Изменения графа дружбы влиты в базовый граф");
+        }
+    }
+
+    // Связи одного направления: неизменяемый базовый граф и оверлей с измененными после его построения списками
+    private static final class Adjacency {
+        private final Csr base;
+        private final ConcurrentHashMap<Long, long[]> overlay = new ConcurrentHashMap<>();
+
+        private Adjacency(Csr base) {
+            this.base = base;
+        }
+
+        private Segment neighbors(long id) {
+            long[] changed = overlay.get(id);
+            return changed != null ? new Segment(changed, 0, changed.length) : base.neighbors(id);
+        }
+
+        // Списки в оверлее не изменяются на месте, поэтому читатели без блокировок видят целый список
+        private void update(long id, UnaryOperator<long[]> change) {
+            overlay.put(id, change.apply(neighbors(id).toArray()));
+        }
+
+        private Adjacency compact() {
+            return new Adjacency(base.merge(overlay));
+        }
+    }
+
+    // Граф в формате CSR: соседи пользователя nodes[i] лежат в targets с offsets[i] по offsets[i + 1]
+    private record Csr(long[] nodes, int[] offsets, long[] targets) {
+        private static final Csr EMPTY = new Csr(SortedLongArrays.EMPTY, new int[1], SortedLongArrays.EMPTY);
+
+        private Segment neighbors(long id) {
+            int idx = Arrays.binarySearch(nodes, id);
+            return idx < 0 ? Segment.EMPTY : new Segment(targets, offsets[idx], offsets[idx + 1]);
+        }
+
+        private static Csr of(LongPairBuffer.Grouped grouped) {
+            return new Csr(grouped.keys(), grouped.offsets(), grouped.values());
+        }
+
+        // Новый граф, в котором списки из оверлея заменяют списки базового графа
+        private Csr merge(Map<Long, long[]> overlay) {
+            Set<Long> ids = new HashSet<>(overlay.keySet());
+            for (long id : nodes) {
+                ids.add(id);
+            }
+            long[] candidates = SortedLongArrays.of(ids);
+
+            long[] mergedNodes = new long[candidates.length];
+            int[] mergedOffsets = new int[candidates.length + 1];
+            int count = 0;
+            for (long id : candidates) {
+                int size = neighbors(id, overlay).size();
+                if (size > 0) {
+                    mergedNodes[count] = id;
+                    mergedOffsets[count + 1] = mergedOffsets[count] + size;
+                    count++;
+                }
+            }
+
+            long[] mergedTargets = new long[mergedOffsets[count]];
+            for (int idx = 0; idx < count; idx++) {
+                Segment segment = neighbors(mergedNodes[idx], overlay);
+                System.arraycopy(segment.values(), segment.from(), mergedTargets, mergedOffsets[idx], segment.size());
+            }
+            return new Csr(Arrays.copyOf(mergedNodes, count), Arrays.copyOf(mergedOffsets, count + 1), mergedTargets);
+        }
+
+        private Segment neighbors(long id, Map<Long, long[]> overlay) {
+            long[] changed = overlay.get(id);
+            return changed != null ? new Segment(changed, 0, changed.length) : neighbors(id);
+        }
+    }
+
+    // Отсортированный список соседей - участок массива без копирования
+    private record Segment(long[] values, int from, int to) {
+        private static final Segment EMPTY = new Segment(SortedLongArrays.EMPTY, 0, 0);
+
+        private int size() {
+            return to - from;
+        }
+
+        private long get(int idx) {
+            return values[from + idx];
+        }
+
+        private boolean contains(long value) {
+            return Arrays.binarySearch(values, from, to, value) >= 0;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOfRange(values, from, to);
+        }
+    }
+}
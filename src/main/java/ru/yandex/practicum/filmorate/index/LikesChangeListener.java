@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.index;
+
+/**
+ * Подписчик на изменения лайков. Вызывается только для лайков, которые действительно были добавлены или удалены в БД.
+ * При удалении фильма или пользователя их лайки удаляются в БД каскадно, отдельных событий по лайкам не будет
+ */
+
+public interface LikesChangeListener {
+
+    void likeAdded(Long filmId, Long userId);
+
+    void likeRemoved(Long filmId, Long userId);
+
+    default void filmRemoved(Long filmId) {
+    }
+
+    default void userRemoved(Long userId) {
+    }
+}
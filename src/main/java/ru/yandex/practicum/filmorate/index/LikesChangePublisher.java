@@ -0,0 +1,33 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Рассылка изменений лайков всем индексам в памяти, которые от них зависят
+ */
+
+@Component
+@RequiredArgsConstructor
+public class LikesChangePublisher {
+
+    private final List<LikesChangeListener> listeners;
+
+    public void likeAdded(Long filmId, Long userId) {
+        listeners.forEach(listener -> listener.likeAdded(filmId, userId));
+    }
+
+    public void likeRemoved(Long filmId, Long userId) {
+        listeners.forEach(listener -> listener.likeRemoved(filmId, userId));
+    }
+
+    public void filmRemoved(Long filmId) {
+        listeners.forEach(listener -> listener.filmRemoved(filmId));
+    }
+
+    public void userRemoved(Long userId) {
+        listeners.forEach(listener -> listener.userRemoved(userId));
+    }
+}
@@ -0,0 +1,136 @@
+package ru.yandex.practicum.filmorate.index;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.LikesStorage;
+import ru.yandex.practicum.filmorate.utils.SortedLongArrays;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Разреженная матрица "пользователь x фильм" по таблице likes для рекомендаций фильмов.
+ * Для пользователя хранится отсортированный массив id понравившихся фильмов, для фильма - отсортированный
+ * массив id пользователей, поставивших лайк. Массивы не изменяются на месте: изменение лайка заменяет
+ * по одному массиву в каждой карте, поэтому чтение идет без блокировок
+ */
+
+@Slf4j
+@Component
+@Order(2)
+@RequiredArgsConstructor
+public class LikesMatrixIndex implements LikesChangeListener {
+
+    // Сколько самых похожих пользователей участвует в подборе рекомендаций
+    private static final int MAX_NEIGHBOURS = 50;
+
+    private final LikesStorage likesStorage;
+
+    private volatile ConcurrentHashMap<Long, long[]> filmsByUser = new ConcurrentHashMap<>();
+    private volatile ConcurrentHashMap<Long, long[]> usersByFilm = new ConcurrentHashMap<>();
+
+    // Заполнение матрицы из таблицы likes при старте приложения
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    // Полное перестроение матрицы: лайки выгружаются одним проходом, строки и столбцы собираются параллельно
+    public synchronized void rebuild() {
+        LongPairBuffer likes = new LongPairBuffer();
+        likesStorage.exportAll(like -> likes.add(like.getUserId(), like.getFilmId()));
+        filmsByUser = likes.groupBySource().toMap();
+        usersByFilm = likes.groupByTarget().toMap();
+        log.info("Матрица лайков построена, лайков: {}, пользователей: {}, фильмов: {}",
+                likes.size(), filmsByUser.size(), usersByFilm.size());
+    }
+
+    @Override
+    public synchronized void likeAdded(Long filmId, Long userId) {
+        filmsByUser.merge(userId, new long[]{filmId}, (films, added) -> SortedLongArrays.insert(films, filmId));
+        usersByFilm.merge(filmId, new long[]{userId}, (users, added) -> SortedLongArrays.insert(users, userId));
+    }
+
+    @Override
+    public synchronized void likeRemoved(Long filmId, Long userId) {
+        filmsByUser.computeIfPresent(userId, (id, films) -> emptyToNull(SortedLongArrays.remove(films, filmId)));
+        usersByFilm.computeIfPresent(filmId, (id, users) -> emptyToNull(SortedLongArrays.remove(users, userId)));
+    }
+
+    // Удаление фильма из строк всех поставивших ему лайк пользователей
+    @Override
+    public synchronized void filmRemoved(Long filmId) {
+        long[] users = usersByFilm.remove(filmId);
+        if (users != null) {
+            for (long userId : users) {
+                filmsByUser.computeIfPresent(userId, (id, films) -> emptyToNull(SortedLongArrays.remove(films, filmId)));
+            }
+        }
+    }
+
+    // Удаление пользователя из столбцов всех фильмов, которым он поставил лайк
+    @Override
+    public synchronized void userRemoved(Long userId) {
+        long[] films = filmsByUser.remove(userId);
+        if (films != null) {
+            for (long filmId : films) {
+                usersByFilm.computeIfPresent(filmId, (id, users) -> emptyToNull(SortedLongArrays.remove(users, userId)));
+            }
+        }
+    }
+
+    // Отсортированные id фильмов, которые лайкнул пользователь. Массив общий и не должен изменяться
+    public long[] findFilmsByUser(Long userId) {
+        return filmsByUser.getOrDefault(userId, SortedLongArrays.EMPTY);
+    }
+
+    // Отсортированные id пользователей, лайкнувших фильм. Массив общий и не должен изменяться
+    public long[] findUsersByFilm(Long filmId) {
+        return usersByFilm.getOrDefault(filmId, SortedLongArrays.EMPTY);
+    }
+
+    // Id всех фильмов, у которых есть хотя бы один лайк
+    public Set<Long> findLikedFilms() {
+        return Collections.unmodifiableSet(usersByFilm.keySet());
+    }
+
+    // Подбор до limit фильмов, которые пользователь еще не лайкал.
+    // Соседи - до MAX_NEIGHBOURS пользователей с наибольшим числом общих лайков; фильм получает сумму
+    // совпадений всех соседей, которые его лайкнули. Просматриваются только строки и столбцы,
+    // связанные с лайками пользователя, таблица likes не читается
+    public List<Long> findRecommendations(Long userId, int limit) {
+        Map<Long, long[]> byUser = filmsByUser;
+        Map<Long, long[]> byFilm = usersByFilm;
+
+        long[] liked = byUser.getOrDefault(userId, SortedLongArrays.EMPTY);
+        Map<Long, Integer> overlaps = new HashMap<>();
+        for (long filmId : liked) {
+            for (long otherId : byFilm.getOrDefault(filmId, SortedLongArrays.EMPTY)) {
+                if (otherId != userId) {
+                    overlaps.merge(otherId, 1, Integer::sum);
+                }
+            }
+        }
+
+        Map<Long, Integer> scores = new HashMap<>();
+        for (Map.Entry<Long, Integer> neighbour : ScoreRanking.top(overlaps, MAX_NEIGHBOURS)) {
+            for (long filmId : byUser.getOrDefault(neighbour.getKey(), SortedLongArrays.EMPTY)) {
+                if (!SortedLongArrays.contains(liked, filmId)) {
+                    scores.merge(filmId, neighbour.getValue(), Integer::sum);
+                }
+            }
+        }
+
+        return ScoreRanking.top(scores, limit).stream()
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    // Вспомогательный метод: пустые строки и столбцы не хранятся
+    private static long[] emptyToNull(long[] values) {
+        return values.length == 0 ? null : values;
+    }
+}
@@ -0,0 +1,74 @@
+package ru.yandex.practicum.filmorate.index;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Растущие массивы пар (source, target) для построения индексов в памяти без упаковки значений в Long.
+ * Собранные пары группируются по любому из элементов в CSR-представление с отсортированными группами
+ */
+
+final class LongPairBuffer {
+
+    private long[] sources = new long[1024];
+    private long[] targets = new long[1024];
+    private int size;
+
+    void add(long source, long target) {
+        if (size == sources.length) {
+            sources = Arrays.copyOf(sources, size * 2);
+            targets = Arrays.copyOf(targets, size * 2);
+        }
+        sources[size] = source;
+        targets[size] = target;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Группировка по первому элементу пары: для каждого source - отсортированные target
+    Grouped groupBySource() {
+        return group(sources, targets);
+    }
+
+    // Группировка по второму элементу пары: для каждого target - отсортированные source
+    Grouped groupByTarget() {
+        return group(targets, sources);
+    }
+
+    // Вспомогательный метод для группировки сортировкой подсчетом, группы сортируются параллельно
+    private Grouped group(long[] keys, long[] values) {
+        long[] nodes = Arrays.stream(keys, 0, size).parallel().sorted().distinct().toArray();
+        int[] offsets = new int[nodes.length + 1];
+        for (int idx = 0; idx < size; idx++) {
+            offsets[Arrays.binarySearch(nodes, keys[idx]) + 1]++;
+        }
+        for (int idx = 0; idx < nodes.length; idx++) {
+            offsets[idx + 1] += offsets[idx];
+        }
+
+        long[] grouped = new long[size];
+        int[] cursors = Arrays.copyOf(offsets, nodes.length);
+        for (int idx = 0; idx < size; idx++) {
+            grouped[cursors[Arrays.binarySearch(nodes, keys[idx])]++] = values[idx];
+        }
+        IntStream.range(0, nodes.length).parallel()
+                .forEach(idx -> Arrays.sort(grouped, offsets[idx], offsets[idx + 1]));
+        return new Grouped(nodes, offsets, grouped);
+    }
+
+    // Сгруппированные пары: группа keys[i] лежит в values с offsets[i] по offsets[i + 1]
+    record Grouped(long[] keys, int[] offsets, long[] values) {
+
+        // Раскладка групп по отдельным массивам, копирование выполняется параллельно
+        ConcurrentHashMap<Long, long[]> toMap() {
+            ConcurrentHashMap<Long, long[]> map = new ConcurrentHashMap<>(Math.max(16, keys.length * 4 / 3 + 1));
+            IntStream.range(0, keys.length).parallel()
+                    .forEach(idx -> map.put(keys[idx], Arrays.copyOfRange(values, offsets[idx], offsets[idx + 1])));
+            return map;
+        }
+    }
+}
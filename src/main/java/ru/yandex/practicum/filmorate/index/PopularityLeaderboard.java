@@ -0,0 +1,187 @@
+package ru.yandex.practicum.filmorate.index;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.storage.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.LikesStorage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Рейтинг фильмов по количеству лайков, который хранится в памяти.
+ * Упорядочен по (количество лайков по убыванию, id фильма по возрастанию).
+ * Изменение счетчика стоит O(log n), получение топа из count фильмов - O(count) без обращения к БД.
+ * Получает события раньше матрицы лайков: при удалении пользователя фильмы с его лайками берутся из матрицы.
+ * Все изменения идут под одной блокировкой, чтение топа - без блокировок
+ */
+
+@Slf4j
+@Component
+@Order(1)
+@RequiredArgsConstructor
+public class PopularityLeaderboard implements LikesChangeListener {
+
+    private static final Comparator<Entry> RANKING_ORDER = Comparator
+            .comparingLong(Entry::likes).reversed()
+            .thenComparingLong(Entry::filmId);
+
+    private final FilmStorage filmStorage;
+    private final LikesStorage likesStorage;
+    private final LikesMatrixIndex likesMatrixIndex;
+
+    // Рейтинг заменяется целиком: читатели берут текущий через volatile-ссылку и не видят его частично собранным
+    private volatile Ranking ranking = new Ranking(Map.of());
+
+    // Заполнение рейтинга при старте приложения из счетчиков films.likes_count - без подсчета по таблице likes.
+    // Расхождение счетчиков с likes находит сверка рейтинга
+    @PostConstruct
+    public synchronized void init() {
+        ranking = new Ranking(filmStorage.findLikesCounts());
+        log.info("Рейтинг популярности загружен, фильмов: {}", ranking.likesByFilm.size());
+    }
+
+    // Добавление нового фильма без лайков
+    public synchronized void addFilm(Long filmId) {
+        ranking.setLikes(filmId, 0);
+    }
+
+    // Удаление фильма из рейтинга
+    public synchronized void removeFilm(Long filmId) {
+        ranking.removeFilm(filmId);
+    }
+
+    // Увеличение счетчика лайков фильма
+    @Override
+    public void likeAdded(Long filmId, Long userId) {
+        changeLikes(filmId, 1);
+    }
+
+    // Уменьшение счетчика лайков фильма
+    @Override
+    public void likeRemoved(Long filmId, Long userId) {
+        changeLikes(filmId, -1);
+    }
+
+    // Уменьшение счетчиков фильмов, которые лайкал удаленный пользователь: его лайки удалены в БД каскадно
+    @Override
+    public synchronized void userRemoved(Long userId) {
+        for (long filmId : likesMatrixIndex.findFilmsByUser(userId)) {
+            changeLikes(filmId, -1);
+        }
+    }
+
+    // Получение id самых популярных фильмов в порядке убывания количества лайков
+    public List<Long> findTop(int count) {
+        Ranking current = ranking;
+        List<Long> top = new ArrayList<>(Math.min(count, current.likesByFilm.size()));
+        Set<Long> seen = new HashSet<>();
+        Iterator<Entry> iterator = current.entries.iterator();
+        // Во время обновления фильм может ненадолго встретиться дважды - берем первое вхождение
+        while (top.size() < count && iterator.hasNext()) {
+            long filmId = iterator.next().filmId();
+            if (seen.add(filmId)) {
+                top.add(filmId);
+            }
+        }
+        return top;
+    }
+
+    // Сверка рейтинга с БД, возвращается количество расхождений. При repair расходящиеся позиции исправляются.
+    // Лайк фиксируется в БД раньше, чем событие о нем доходит до рейтинга, поэтому расхождение засчитывается,
+    // только если повторная сверка нашла его с тем же значением в БД. Лайк "в пути" к этому времени уже учтен
+    // в памяти, а исправление по нему привело бы к двойному учету после прихода события
+    public int checkConsistency(boolean repair) {
+        Map<Long, Long> drift = findDrift();
+        if (drift.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, Long> confirmed = findDrift();
+        confirmed.entrySet().removeIf(entry -> !drift.containsKey(entry.getKey())
+                || !Objects.equals(entry.getValue(), drift.get(entry.getKey())));
+        confirmed.forEach((filmId, likes) -> log.warn("Расхождение рейтинга для фильма с Id:{}: в памяти {}, в БД {}",
+                filmId, ranking.likesByFilm.get(filmId), likes));
+
+        if (repair && !confirmed.isEmpty()) {
+            repair(confirmed);
+        }
+        return confirmed.size();
+    }
+
+    // Вспомогательный метод для поиска расхождений с БД: id фильма -> число лайков в БД (null - фильма нет в БД)
+    private Map<Long, Long> findDrift() {
+        Map<Long, Long> actual = likesStorage.countLikesByFilm();
+        Ranking current = ranking;
+        Map<Long, Long> drift = new HashMap<>();
+
+        actual.forEach((filmId, likes) -> {
+            if (!likes.equals(current.likesByFilm.get(filmId))) {
+                drift.put(filmId, likes);
+            }
+        });
+        for (Long filmId : current.likesByFilm.keySet()) {
+            if (!actual.containsKey(filmId)) {
+                drift.put(filmId, null);
+            }
+        }
+        return drift;
+    }
+
+    // Вспомогательный метод для исправления рейтинга: новый рейтинг собирается из текущего с исправленными
+    // позициями и заменяет его целиком. Блокировка общая с изменениями счетчиков, поэтому они не теряются
+    private synchronized void repair(Map<Long, Long> confirmed) {
+        Map<Long, Long> likes = new HashMap<>(ranking.likesByFilm);
+        confirmed.forEach((filmId, actual) -> {
+            if (actual == null) {
+                likes.remove(filmId);
+            } else {
+                likes.put(filmId, actual);
+            }
+        });
+        ranking = new Ranking(likes);
+    }
+
+    // Вспомогательный метод для изменения счетчика лайков фильма на delta
+    private synchronized void changeLikes(Long filmId, long delta) {
+        ranking.changeLikes(filmId, delta);
+    }
+
+    private record Entry(long likes, long filmId) {
+    }
+
+    // Упорядоченный набор позиций и счетчики лайков по фильмам. Изменяется только под блокировкой рейтинга
+    private static final class Ranking {
+
+        private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(RANKING_ORDER);
+        private final ConcurrentHashMap<Long, Long> likesByFilm = new ConcurrentHashMap<>();
+
+        private Ranking(Map<Long, Long> likes) {
+            likes.forEach(this::setLikes);
+        }
+
+        private void setLikes(Long filmId, long likes) {
+            Long oldLikes = likesByFilm.put(filmId, likes);
+            // Сначала добавляем новую позицию, затем убираем старую, чтобы фильм не пропадал из рейтинга
+            entries.add(new Entry(likes, filmId));
+            if (oldLikes != null && oldLikes != likes) {
+                entries.remove(new Entry(oldLikes, filmId));
+            }
+        }
+
+        private void changeLikes(Long filmId, long delta) {
+            setLikes(filmId, likesByFilm.getOrDefault(filmId, 0L) + delta);
+        }
+
+        private void removeFilm(Long filmId) {
+            Long likes = likesByFilm.remove(filmId);
+            if (likes != null) {
+                entries.remove(new Entry(likes, filmId));
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ru.yandex.practicum.filmorate.index;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.util.*;
+
+/**
+ * Отбор лучших записей из счетчиков по id: по убыванию счетчика, при равенстве - по возрастанию id.
+ * Используется куча из limit записей, поэтому все счетчики не сортируются
+ */
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class ScoreRanking {
+
+    private static final Comparator<Map.Entry<Long, Integer>> RANKING_ORDER = Comparator
+            .<Map.Entry<Long, Integer>>comparingInt(Map.Entry::getValue).reversed()
+            .thenComparing(Map.Entry::getKey);
+
+    static List<Map.Entry<Long, Integer>> top(Map<Long, Integer> scores, int limit) {
+        // В вершине кучи худшая из отобранных записей
+        PriorityQueue<Map.Entry<Long, Integer>> heap = new PriorityQueue<>(RANKING_ORDER.reversed());
+        for (Map.Entry<Long, Integer> entry : scores.entrySet()) {
+            heap.add(entry);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+
+        List<Map.Entry<Long, Integer>> top = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            top.add(heap.poll());
+        }
+        Collections.reverse(top);
+        return top;
+    }
+}
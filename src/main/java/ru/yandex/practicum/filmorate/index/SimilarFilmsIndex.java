@@ -0,0 +1,139 @@
+package ru.yandex.practicum.filmorate.index;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.Order;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.utils.SortedLongArrays;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Заранее посчитанные похожие фильмы: для каждого фильма хранится массив id до MAX_NEIGHBOURS фильмов
+ * с наибольшим коэффициентом Жаккара по множествам поставивших лайк пользователей, по убыванию сходства.
+ * Чтение - это срез массива. Полный пересчет идет параллельно в пуле fork-join, после изменения лайков
+ * фильмы попадают в множество "грязных" и пересчитываются по расписанию
+ */
+
+@Slf4j
+@Component
+@Order(3)
+@RequiredArgsConstructor
+public class SimilarFilmsIndex implements LikesChangeListener {
+
+    public static final int MAX_NEIGHBOURS = 50;
+
+    private static final Comparator<Neighbour> SIMILARITY_ORDER = Comparator
+            .comparingDouble(Neighbour::similarity).reversed()
+            .thenComparingLong(Neighbour::filmId);
+
+    private final LikesMatrixIndex likesMatrixIndex;
+
+    private final ConcurrentHashMap<Long, long[]> neighboursByFilm = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyFilms = ConcurrentHashMap.newKeySet();
+
+    // Полный расчет при старте приложения, матрица лайков к этому моменту уже построена
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    // Полный параллельный пересчет похожих фильмов для всех фильмов с лайками
+    public synchronized void rebuild() {
+        long started = System.currentTimeMillis();
+        dirtyFilms.clear();
+        Set<Long> films = likesMatrixIndex.findLikedFilms();
+        neighboursByFilm.keySet().retainAll(films);
+        films.parallelStream().forEach(this::recompute);
+        log.info("Похожие фильмы посчитаны для {} фильмов за {} мс",
+                films.size(), System.currentTimeMillis() - started);
+    }
+
+    // Пересчет фильмов, лайки которых изменились с прошлого запуска
+    @Scheduled(fixedDelayString = "${filmorate.similar-films.refresh-interval-ms:5000}")
+    public synchronized void refreshDirty() {
+        if (dirtyFilms.isEmpty()) {
+            return;
+        }
+
+        List<Long> films = new ArrayList<>(dirtyFilms);
+        dirtyFilms.removeAll(films);
+        films.parallelStream().forEach(this::recompute);
+        log.debug("Пересчитаны похожие фильмы для {} фильмов", films.size());
+    }
+
+    // Изменение лайка меняет пересечения фильма со всеми фильмами, лайкнутыми тем же пользователем.
+    // Для остальных соседей меняется только знаменатель коэффициента, их пересчет дождется следующего изменения
+    @Override
+    public void likeAdded(Long filmId, Long userId) {
+        markDirty(filmId, userId);
+    }
+
+    @Override
+    public void likeRemoved(Long filmId, Long userId) {
+        markDirty(filmId, userId);
+    }
+
+    @Override
+    public void filmRemoved(Long filmId) {
+        dirtyFilms.remove(filmId);
+        neighboursByFilm.remove(filmId);
+    }
+
+    // До limit id самых похожих фильмов
+    public List<Long> findSimilar(Long filmId, int limit) {
+        long[] neighbours = neighboursByFilm.getOrDefault(filmId, SortedLongArrays.EMPTY);
+        return Arrays.stream(neighbours, 0, Math.min(limit, neighbours.length))
+                .boxed()
+                .toList();
+    }
+
+    // Вспомогательный метод для отметки фильмов, которые нужно пересчитать
+    private void markDirty(Long filmId, Long userId) {
+        dirtyFilms.add(filmId);
+        for (long likedFilmId : likesMatrixIndex.findFilmsByUser(userId)) {
+            dirtyFilms.add(likedFilmId);
+        }
+    }
+
+    // Вспомогательный метод для расчета соседей одного фильма: пересечения считаются по строкам пользователей,
+    // лайкнувших фильм, затем из кандидатов кучей отбираются MAX_NEIGHBOURS лучших
+    private void recompute(Long filmId) {
+        long[] likers = likesMatrixIndex.findUsersByFilm(filmId);
+        if (likers.length == 0) {
+            neighboursByFilm.remove(filmId);
+            return;
+        }
+
+        Map<Long, Integer> intersections = new HashMap<>();
+        for (long userId : likers) {
+            for (long otherId : likesMatrixIndex.findFilmsByUser(userId)) {
+                if (otherId != filmId) {
+                    intersections.merge(otherId, 1, Integer::sum);
+                }
+            }
+        }
+
+        // В вершине кучи наименее похожий из отобранных фильмов
+        PriorityQueue<Neighbour> heap = new PriorityQueue<>(SIMILARITY_ORDER.reversed());
+        intersections.forEach((otherId, common) -> {
+            int union = likers.length + likesMatrixIndex.findUsersByFilm(otherId).length - common;
+            heap.add(new Neighbour(otherId, (double) common / union));
+            if (heap.size() > MAX_NEIGHBOURS) {
+                heap.poll();
+            }
+        });
+
+        long[] neighbours = new long[heap.size()];
+        for (int idx = neighbours.length - 1; idx >= 0; idx--) {
+            neighbours[idx] = heap.poll().filmId();
+        }
+        neighboursByFilm.put(filmId, neighbours);
+    }
+
+    private record Neighbour(long filmId, double similarity) {
+    }
+}
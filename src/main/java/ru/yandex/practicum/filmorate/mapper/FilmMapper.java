@@ -61,9 +61,13 @@ public class FilmMapper {
                 new LinkedHashSet<>(film.getGenres()) :
                 new LinkedHashSet<>());
 
+        // Лайки, которые не загружались из БД, в ответ не попадают
         dto.setLikesByUsers(film.getLikesByUsers() != null ?
                 new HashSet<>(film.getLikesByUsers()) :
-                new HashSet<>());
+                null);
+        dto.setLikesCount(film.getLikesCount() != null ?
+                film.getLikesCount() :
+                dto.getLikesByUsers() != null ? dto.getLikesByUsers().size() : 0L);
 
         return dto;
     }
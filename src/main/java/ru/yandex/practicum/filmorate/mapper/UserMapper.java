@@ -42,9 +42,10 @@ public class UserMapper {
         dto.setLogin(user.getLogin());
         dto.setName(user.getName());
         dto.setBirthday(user.getBirthday());
+        // Друзья, которые не загружались из БД (например, у пользователей из списка друзей), в ответ не попадают
         dto.setFriends(user.getFriends() != null ?
                 new HashSet<>(user.getFriends()) :
-                new HashSet<>());
+                null);
         return dto;
     }
 
@@ -20,5 +20,6 @@ public class Film {
     private Integer duration;
     private Mpa mpa;
     private Set<Long> likesByUsers;
+    private Long likesCount;
     private Set<Genre> genres;
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.util.*;
+
+/**
+ * Поля фильма, которые можно запросить через параметр fields.
+ * Связи GENRES и LIKES_BY_USERS загружаются из БД только если запрошены
+ */
+
+@Getter
+@RequiredArgsConstructor
+public enum FilmField {
+    ID("id"),
+    NAME("name"),
+    DESCRIPTION("description"),
+    RELEASE_DATE("releaseDate"),
+    DURATION("duration"),
+    MPA("mpa"),
+    GENRES("genres"),
+    LIKES_BY_USERS("likesByUsers"),
+    LIKES_COUNT("likesCount");
+
+    public static final Set<FilmField> ALL = Collections.unmodifiableSet(EnumSet.allOf(FilmField.class));
+
+    private final String jsonName;
+
+    // Разбор списка полей вида "id,name,mpa". Пустой список означает все поля
+    public static Set<FilmField> parse(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return ALL;
+        }
+
+        Set<FilmField> result = EnumSet.noneOf(FilmField.class);
+        for (String name : fields.split(",")) {
+            String jsonName = name.trim();
+            result.add(Arrays.stream(values())
+                    .filter(field -> field.jsonName.equals(jsonName))
+                    .findFirst()
+                    .orElseThrow(() -> new ValidationException("Неизвестное поле фильма: " + jsonName)));
+        }
+        return result;
+    }
+}
@@ -1,41 +1,122 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.cache.VersionRegistry;
+import ru.yandex.practicum.filmorate.dto.BulkImportResult;
+import ru.yandex.practicum.filmorate.dto.BulkItemResult;
 import ru.yandex.practicum.filmorate.dto.FilmDto;
+import ru.yandex.practicum.filmorate.dto.LikesQueueStats;
 import ru.yandex.practicum.filmorate.dto.NewFilmRequest;
 import ru.yandex.practicum.filmorate.dto.UpdateFilmRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
+import ru.yandex.practicum.filmorate.dto.PopularityCheckResult;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
+import ru.yandex.practicum.filmorate.index.LikesMatrixIndex;
+import ru.yandex.practicum.filmorate.index.PopularityLeaderboard;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
 import ru.yandex.practicum.filmorate.mapper.FilmMapper;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.*;
 import ru.yandex.practicum.filmorate.utils.FilmValidate;
+import ru.yandex.practicum.filmorate.utils.PageCursor;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class FilmService {
 
+    private static final int BULK_BATCH_SIZE = 1000;
+    private static final int MAX_RECOMMENDATIONS = 100;
+    private static final int MAX_FEED_SIZE = 100;
+    // Выгрузка всегда пишет все поля фильма и не зависит от фильтров, настроенных в ObjectMapper
+    private static final FilterProvider ALL_FIELDS_FILTER = new SimpleFilterProvider()
+            .setDefaultFilter(SimpleBeanPropertyFilter.serializeAll());
+
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
     private final FilmValidate filmValidate;
     private final GenreStorage genreStorage;
     private final MpaStorage mpaStorage;
     private final LikesStorage likesStorage;
+    private final PopularityLeaderboard popularityLeaderboard;
+    private final ObjectMapper objectMapper;
+    private final LikesChangePublisher likesChangePublisher;
+    private final LikesWriteBehindQueue likesWriteBehindQueue;
+    private final LikesMatrixIndex likesMatrixIndex;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final VersionRegistry versionRegistry;
 
     // Получение всех фильмов
     public Collection<FilmDto> findAll() {
-        return filmStorage.findAll().stream()
+        return findAll(FilmField.ALL);
+    }
+
+    // Получение всех фильмов только с запрошенными полями
+    public Collection<FilmDto> findAll(Set<FilmField> fields) {
+        return filmStorage.findAll(fields).stream()
+                .map(FilmMapper::mapToDto)
+                .toList();
+    }
+
+    // Получение страницы фильмов, следующей за курсором
+    public PageDto<FilmDto> findPage(int limit, String after, Set<FilmField> fields) {
+        PageCursor.validateLimit(limit);
+        List<FilmDto> films = filmStorage.findPage(PageCursor.decode(after), limit + 1, fields).stream()
                 .map(FilmMapper::mapToDto)
                 .toList();
+        return PageCursor.toPage(films, limit, FilmDto::getId);
+    }
+
+    // Потоковая выгрузка всех фильмов в формате NDJSON: каждый фильм пишется в поток сразу после чтения из БД
+    public void exportAll(OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+             SequenceWriter writer = objectMapper.writer(ALL_FIELDS_FILTER)
+                     .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                     .withRootValueSeparator("\n")
+                     .writeValues(generator)) {
+            filmStorage.exportAll(film -> {
+                try {
+                    writer.write(FilmMapper.mapToDto(film));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
     }
 
     // Получение фильма по id
     public FilmDto findById(Long filmId) {
-        return filmStorage.findById(filmId)
+        return findById(filmId, FilmField.ALL);
+    }
+
+    // Получение фильма по id только с запрошенными полями
+    public FilmDto findById(Long filmId, Set<FilmField> fields) {
+        return filmStorage.findById(filmId, fields)
                 .map(FilmMapper::mapToDto)
                 .orElseThrow(() -> new NotFoundException("Фильм не найден"));
     }
@@ -65,15 +146,68 @@ public class FilmService {
         }
 
         film = filmStorage.create(film);
+        popularityLeaderboard.addFilm(film.getId());
+        versionRegistry.filmChanged(film.getId());
+        versionRegistry.popularityChanged();
         return FilmMapper.mapToDto(film);
     }
 
+    // Пакетная загрузка фильмов из потока NDJSON: одна строка - один NewFilmRequest.
+    // Строки проверяются по справочникам в памяти и пишутся в БД пакетами, файл целиком в памяти не хранится
+    public BulkImportResult createBulk(InputStream in) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(NewFilmRequest.class);
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        BulkImportResult result = new BulkImportResult();
+        List<Film> batch = new ArrayList<>(BULK_BATCH_SIZE);
+        List<Long> batchLines = new ArrayList<>(BULK_BATCH_SIZE);
+
+        long lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+
+            try {
+                Film film = FilmMapper.mapToFilm(reader.<NewFilmRequest>readValue(line));
+                validateBulkFilm(film);
+                batch.add(film);
+                batchLines.add(lineNumber);
+            } catch (JsonProcessingException e) {
+                result.addFailed(lineNumber, "Некорректный JSON: " + e.getOriginalMessage());
+            } catch (ValidationException | NotFoundException e) {
+                result.addFailed(lineNumber, e.getMessage());
+            } catch (RuntimeException e) {
+                result.addFailed(lineNumber, "Некорректные данные фильма");
+            }
+
+            if (batch.size() == BULK_BATCH_SIZE) {
+                saveBulkBatch(batch, batchLines, result);
+                log.info("Пакетная загрузка фильмов: обработано строк {}, добавлено {}, ошибок {}",
+                        lineNumber, result.getCreated(), result.getFailed());
+            }
+        }
+        saveBulkBatch(batch, batchLines, result);
+
+        result.getFailedItems().sort(Comparator.comparingLong(BulkItemResult::getLine));
+        log.info("Пакетная загрузка фильмов завершена: добавлено {}, ошибок {}", result.getCreated(), result.getFailed());
+        return result;
+    }
+
     // Обновление фильма
     public FilmDto update(UpdateFilmRequest request) {
         Film film = FilmMapper.mapToFilm(request);
         filmValidate.validateFilm(film);
 
-        Film oldFilm = filmStorage.findById(request.getId())
+        // Лайки при изменении фильма не нужны: в ответ попадает только счетчик из строки фильма,
+        // а жанры не читаются, если запрос их заменяет
+        Set<FilmField> fields = EnumSet.copyOf(FilmField.ALL);
+        fields.remove(FilmField.LIKES_BY_USERS);
+        if (request.getGenres() != null) {
+            fields.remove(FilmField.GENRES);
+        }
+        Film oldFilm = filmStorage.findById(request.getId(), fields)
                 .orElseThrow(() -> {
                     log.warn("Фильм с id:{} не найден", request.getId());
                     return new NotFoundException("Фильм не найден");
@@ -100,71 +234,237 @@ public class FilmService {
 
         film = FilmMapper.updateFilmFields(oldFilm, request);
         film.setLikesByUsers(oldFilm.getLikesByUsers());
-        return FilmMapper.mapToDto(filmStorage.update(film));
+        Film updatedFilm = filmStorage.update(film);
+        versionRegistry.filmChanged(updatedFilm.getId());
+        versionRegistry.popularityChanged();
+        return FilmMapper.mapToDto(updatedFilm);
     }
 
     // Удаление фильма по id
     public void delete(Long filmId) {
         filmStorage.delete(filmId);
+        popularityLeaderboard.removeFilm(filmId);
+        likesChangePublisher.filmRemoved(filmId);
     }
 
-    // Метод добавления лайка фильму(по id) от пользователя c указанным id
+    // Метод добавления лайка фильму(по id) от пользователя c указанным id.
+    // Хранилище само проверяет существование фильма и пользователя и не дублирует уже поставленный лайк
     public void addLike(Long filmId, Long userId) {
-        final Film film = filmStorage.findById(filmId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка лайкнуть несуществующий фильм Id:{}", filmId);
-                    throw new NotFoundException("Фильм не найден");
-                });
-
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка лайка от несуществующего пользователя Id:{}", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        // В режиме отложенной записи лайк попадает в очередь, повторы схлопываются при сбросе в БД
+        if (likesWriteBehindQueue.isEnabled()) {
+            checkFilmAndUser(filmId, userId);
+            likesWriteBehindQueue.enqueue(filmId, userId, true);
+            log.debug("Лайк фильму c Id:{} от пользователя с Id:{} поставлен в очередь", filmId, userId);
+            return;
+        }
 
-        Set<Long> likes = film.getLikesByUsers();
-        if (likes.contains(userId)) {
+        if (!likesStorage.addLikeToFilm(filmId, userId)) {
             log.debug("Пользователь с Id:{} уже ставил лайк фильму с Id:{}", userId, filmId);
             return;
         }
-        likes.add(userId);
-        film.setLikesByUsers(likes);
-        likesStorage.addLikeToFilm(filmId, userId);
+        likesChangePublisher.likeAdded(filmId, userId);
         log.debug("Пользователь с Id:{} поставил лайк фильму c Id:{}", userId, filmId);
     }
 
     // Метод удаления лайка у фильма(по id) от пользователя с указанным id
     public void removeLike(Long filmId, Long userId) {
-        final Film film = filmStorage.findById(filmId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка удалить лайк у несуществующего фильма с Id:{}", filmId);
-                    throw new NotFoundException("Фильм не найден");
-                });
-
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка удалить лайк от несуществующего пользователя c Id:{}", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        if (likesWriteBehindQueue.isEnabled()) {
+            checkFilmAndUser(filmId, userId);
+            likesWriteBehindQueue.enqueue(filmId, userId, false);
+            log.debug("Удаление лайка фильму c Id:{} от пользователя с Id:{} поставлено в очередь", filmId, userId);
+            return;
+        }
 
-        Set<Long> likes = film.getLikesByUsers();
-        if (!likes.contains(userId)) {
+        if (!likesStorage.removeLikeFromFilm(filmId, userId)) {
             log.debug("Пользователь с Id:{} не ставил лайк фильму с Id:{}", userId, filmId);
             return;
         }
-        likes.remove(userId);
-        film.setLikesByUsers(likes);
-        likesStorage.removeLikeFromFilm(filmId, userId);
+        likesChangePublisher.likeRemoved(filmId, userId);
         log.debug("Пользователь с Id:{} удалил лайк фильму c Id:{}", userId, filmId);
     }
 
-    // Метод получения популярных фильмов по количеству лайков
+    // Метод получения популярных фильмов по количеству лайков.
+    // Порядок берется из рейтинга в памяти, из БД одним запросом загружаются только сами фильмы
     public Collection<FilmDto> findPopularFilms(int count) {
-        Collection<Film> films = filmStorage.findAll();
-        return films.stream()
-                .sorted((f1, f2) -> f2.getLikesByUsers().size() - f1.getLikesByUsers().size())
-                .limit(count)
+        return findPopularFilms(count, FilmField.ALL);
+    }
+
+    // Метод получения популярных фильмов только с запрошенными полями
+    public Collection<FilmDto> findPopularFilms(int count, Set<FilmField> fields) {
+        if (count <= 0) {
+            log.warn("Передано некорректное количество популярных фильмов: {}", count);
+            throw new ValidationException("Количество популярных фильмов должно быть положительным");
+        }
+
+        return findFilmsInOrder(popularityLeaderboard.findTop(count), fields);
+    }
+
+    // Метод получения рекомендаций фильмов для пользователя по лайкам похожих на него пользователей.
+    // Подбор идет по матрице лайков в памяти, из БД одним запросом загружаются только сами фильмы
+    public Collection<FilmDto> findRecommendations(Long userId, int limit) {
+        if (limit <= 0 || limit > MAX_RECOMMENDATIONS) {
+            log.warn("Передано некорректное количество рекомендаций фильмов: {}", limit);
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_RECOMMENDATIONS);
+        }
+
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка получить рекомендации фильмов для несуществующего пользователя c Id:{}", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+
+        return findFilmsInOrder(likesMatrixIndex.findRecommendations(userId, limit), FilmField.ALL);
+    }
+
+    // Метод получения страницы фильмов, лайкнутых пользователем, по возрастанию id фильма.
+    // Курсор строится по id лайков, поэтому фильм, удаленный между запросами, не сбивает пагинацию
+    public PageDto<FilmDto> findLikedByUser(Long userId, int limit, String after) {
+        PageCursor.validateLimit(limit);
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка получить лайки несуществующего пользователя c Id:{}", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+
+        PageDto<Long> ids = PageCursor.toPage(
+                likesStorage.findFilmsLikedByUser(userId, PageCursor.decode(after), limit + 1), limit, id -> id);
+        return new PageDto<>(findFilmsInOrder(ids.getItems(), FilmField.ALL), ids.getNextCursor());
+    }
+
+    // Метод получения ленты пользователя: фильмы, которые лайкнули его друзья, по убыванию числа таких друзей
+    public Collection<FilmDto> findFeed(Long userId, int limit) {
+        if (limit <= 0 || limit > MAX_FEED_SIZE) {
+            log.warn("Передан некорректный размер ленты: {}", limit);
+            throw new ValidationException("Размер ленты должен быть от 1 до " + MAX_FEED_SIZE);
+        }
+
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка получить ленту несуществующего пользователя c Id:{}", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+
+        return findFilmsInOrder(likesStorage.findFilmsLikedByFriends(userId, limit), FilmField.ALL);
+    }
+
+    // Метод получения фильмов, похожих на заданный по множеству поставивших лайк пользователей.
+    // Соседи посчитаны заранее, из БД одним запросом загружаются только сами фильмы
+    public Collection<FilmDto> findSimilarFilms(Long filmId, int limit) {
+        if (limit <= 0 || limit > SimilarFilmsIndex.MAX_NEIGHBOURS) {
+            log.warn("Передано некорректное количество похожих фильмов: {}", limit);
+            throw new ValidationException("Количество похожих фильмов должно быть от 1 до "
+                    + SimilarFilmsIndex.MAX_NEIGHBOURS);
+        }
+
+        if (!filmStorage.exists(filmId)) {
+            log.warn("Попытка получить похожие фильмы для несуществующего фильма c Id:{}", filmId);
+            throw new NotFoundException("Фильм не найден");
+        }
+
+        return findFilmsInOrder(similarFilmsIndex.findSimilar(filmId, limit), FilmField.ALL);
+    }
+
+    // Метод сверки рейтинга популярности в памяти и счетчиков films.likes_count с таблицей likes без их изменения
+    public PopularityCheckResult checkPopularity() {
+        int counterMismatches = filmStorage.findLikesCountMismatches().size();
+        if (counterMismatches > 0) {
+            log.warn("Счетчик лайков расходится с таблицей likes у {} фильмов", counterMismatches);
+        }
+        int mismatches = popularityLeaderboard.checkConsistency(false);
+        if (mismatches > 0) {
+            log.warn("Рейтинг популярности расходится с БД в {} позициях", mismatches);
+        }
+        return new PopularityCheckResult(mismatches, counterMismatches, false);
+    }
+
+    // Метод сверки рейтинга популярности и счетчиков лайков с таблицей likes и исправления найденных расхождений
+    public PopularityCheckResult repairPopularity() {
+        List<Long> counterMismatches = filmStorage.findLikesCountMismatches();
+        if (!counterMismatches.isEmpty()) {
+            filmStorage.recountLikes(counterMismatches);
+            log.warn("Счетчик лайков расходился с таблицей likes у {} фильмов и был пересчитан",
+                    counterMismatches.size());
+        }
+        int mismatches = popularityLeaderboard.checkConsistency(true);
+        if (mismatches > 0) {
+            versionRegistry.popularityChanged();
+            log.warn("Рейтинг популярности расходился с БД в {} позициях и был исправлен", mismatches);
+        }
+        return new PopularityCheckResult(mismatches, counterMismatches.size(),
+                mismatches > 0 || !counterMismatches.isEmpty());
+    }
+
+    // Метод получения метрик очереди отложенной записи лайков
+    public LikesQueueStats getLikesQueueStats() {
+        return likesWriteBehindQueue.getStats();
+    }
+
+    // Вспомогательный метод для загрузки фильмов одним запросом с сохранением порядка переданных id
+    private List<FilmDto> findFilmsInOrder(List<Long> filmIds, Set<FilmField> fields) {
+        Map<Long, Film> films = filmStorage.findByIds(filmIds, fields).stream()
+                .collect(Collectors.toMap(Film::getId, Function.identity()));
+        return filmIds.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
                 .map(FilmMapper::mapToDto)
                 .toList();
     }
-}
\ No newline at end of file
+
+    // Вспомогательный метод для проверки фильма из пакетной загрузки только по справочникам в памяти
+    private void validateBulkFilm(Film film) {
+        filmValidate.validateFilm(film);
+        mpaStorage.findMpaById(film.getMpa().getId())
+                .orElseThrow(() -> new NotFoundException("Рейтинг MPA не найден"));
+        for (Genre genre : film.getGenres()) {
+            genreStorage.findById(genre.getId())
+                    .orElseThrow(() -> new NotFoundException("Жанр не найден"));
+        }
+    }
+
+    // Вспомогательный метод для записи накопленного пакета фильмов. При ошибке БД весь пакет помечается ошибочным
+    private void saveBulkBatch(List<Film> batch, List<Long> batchLines, BulkImportResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            addBulkCreated(filmStorage.createBatch(batch), batchLines, result);
+        } catch (DataAccessException | DuplicateException e) {
+            // Пакет откатился целиком: фильмы сохраняются по одному, чтобы ошибкой отметить только нужные строки
+            log.warn("Пакет из {} фильмов не сохранен, повтор по одному: {}", batch.size(), e.getMessage());
+            for (int idx = 0; idx < batch.size(); idx++) {
+                try {
+                    addBulkCreated(filmStorage.createBatch(List.of(batch.get(idx))),
+                            List.of(batchLines.get(idx)), result);
+                } catch (DuplicateException ex) {
+                    result.addFailed(batchLines.get(idx), ex.getMessage());
+                } catch (DataAccessException ex) {
+                    log.warn("Фильм из строки {} не сохранен: {}", batchLines.get(idx), ex.getMessage());
+                    result.addFailed(batchLines.get(idx), "Не удалось сохранить фильм");
+                }
+            }
+        }
+        versionRegistry.popularityChanged();
+        batch.clear();
+        batchLines.clear();
+    }
+
+    // Вспомогательный метод для учета фильмов, сохраненных при пакетной загрузке: фильмы идут в порядке строк
+    private void addBulkCreated(List<Film> created, List<Long> lines, BulkImportResult result) {
+        for (int idx = 0; idx < created.size(); idx++) {
+            Film film = created.get(idx);
+            popularityLeaderboard.addFilm(film.getId());
+            versionRegistry.filmChanged(film.getId());
+            result.addCreated(lines.get(idx), film.getId());
+        }
+    }
+
+    // Вспомогательный метод для проверки существования фильма и пользователя перед постановкой в очередь
+    private void checkFilmAndUser(Long filmId, Long userId) {
+        if (!filmStorage.exists(filmId)) {
+            log.warn("Фильм с Id:{} не найден", filmId);
+            throw new NotFoundException("Фильм не найден");
+        }
+        if (!userStorage.exists(userId)) {
+            log.warn("Пользователь с Id:{} не найден", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+    }
+}
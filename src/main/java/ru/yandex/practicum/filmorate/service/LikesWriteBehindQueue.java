@@ -0,0 +1,172 @@
+package ru.yandex.practicum.filmorate.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.dto.LikesQueueStats;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
+import ru.yandex.practicum.filmorate.model.Likes;
+import ru.yandex.practicum.filmorate.storage.LikesStorage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отложенная пакетная запись лайков (write-behind).
+ * Лайки и их отмены копятся в памяти, повторные действия одной пары (фильм, пользователь) схлопываются
+ * в последнее, а очередь сбрасывается в БД пакетами по достижении flush-size или раз в flush-interval-ms.
+ * При аварийной остановке теряется все, что накопилось в очереди с последнего сброса: до flush-size пар,
+ * пришедших за интервал таймера, плюс пары, поставленные в очередь во время идущего сброса.
+ * При штатной остановке очередь сбрасывается в БД
+ */
+
+@Slf4j
+@Component
+public class LikesWriteBehindQueue {
+
+    private static final Comparator<Likes> BATCH_ORDER = Comparator
+            .comparing(Likes::getFilmId)
+            .thenComparing(Likes::getUserId);
+
+    private final LikesStorage likesStorage;
+    private final LikesChangePublisher likesChangePublisher;
+    @Getter
+    private final boolean enabled;
+    private final int flushSize;
+
+    // Последнее запрошенное состояние пары: true - лайк, false - отмена лайка
+    private final ConcurrentHashMap<Likes, Boolean> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong appliedChanges = new AtomicLong();
+    private final AtomicLong droppedChanges = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+
+    public LikesWriteBehindQueue(LikesStorage likesStorage,
+                                 LikesChangePublisher likesChangePublisher,
+                                 @Value("${filmorate.likes.write-behind.enabled:false}") boolean enabled,
+                                 @Value("${filmorate.likes.write-behind.flush-size:500}") int flushSize) {
+        this.likesStorage = likesStorage;
+        this.likesChangePublisher = likesChangePublisher;
+        this.enabled = enabled;
+        this.flushSize = flushSize;
+    }
+
+    // Постановка лайка или его отмены в очередь
+    public void enqueue(Long filmId, Long userId, boolean liked) {
+        Likes like = new Likes();
+        like.setFilmId(filmId);
+        like.setUserId(userId);
+        pending.put(like, liked);
+
+        // Очередь ограничена: при достижении порога запрос сам сбрасывает пакет в БД
+        if (pending.size() >= flushSize) {
+            flush();
+        }
+    }
+
+    // Сброс очереди по таймеру
+    @Scheduled(fixedDelayString = "${filmorate.likes.write-behind.flush-interval-ms:200}")
+    public void scheduledFlush() {
+        if (enabled) {
+            flush();
+        }
+    }
+
+    // Сброс очереди при остановке приложения
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // Запись накопленных изменений в БД пакетными запросами
+    public void flush() {
+        flushLock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            List<Likes> toAdd = new ArrayList<>();
+            List<Likes> toRemove = new ArrayList<>();
+            for (Likes like : pending.keySet()) {
+                Boolean liked = pending.remove(like);
+                if (liked != null) {
+                    (liked ? toAdd : toRemove).add(like);
+                }
+            }
+            // Единый порядок строк снижает риск взаимных блокировок между пакетами
+            toAdd.sort(BATCH_ORDER);
+            toRemove.sort(BATCH_ORDER);
+
+            apply(toAdd, true);
+            apply(toRemove, false);
+
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            flushes.incrementAndGet();
+            lastFlushMillis.set(millis);
+            maxFlushMillis.accumulateAndGet(millis, Math::max);
+            log.debug("Сброшено в БД {} лайков и {} отмен лайков за {} мс", toAdd.size(), toRemove.size(), millis);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // Метрики очереди
+    public LikesQueueStats getStats() {
+        return new LikesQueueStats(
+                enabled,
+                pending.size(),
+                flushes.get(),
+                appliedChanges.get(),
+                droppedChanges.get(),
+                lastFlushMillis.get(),
+                maxFlushMillis.get()
+        );
+    }
+
+    // Вспомогательный метод для записи пакета. Если пакет целиком не записался (например, фильм уже удален),
+    // пары записываются по одной, а ошибочные отбрасываются
+    private void apply(List<Likes> likes, boolean liked) {
+        if (likes.isEmpty()) {
+            return;
+        }
+
+        try {
+            publish(liked ? likesStorage.addLikesBatch(likes) : likesStorage.removeLikesBatch(likes), liked);
+        } catch (DataAccessException e) {
+            log.warn("Пакет из {} изменений лайков не записан, повтор по одному: {}", likes.size(), e.getMessage());
+            for (Likes like : likes) {
+                try {
+                    publish(liked ? likesStorage.addLikesBatch(List.of(like)) :
+                            likesStorage.removeLikesBatch(List.of(like)), liked);
+                } catch (DataAccessException ex) {
+                    log.warn("Изменение лайка фильма с Id:{} от пользователя с Id:{} отброшено: {}",
+                            like.getFilmId(), like.getUserId(), ex.getMessage());
+                    droppedChanges.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Вспомогательный метод для оповещения индексов о реально изменившихся лайках
+    private void publish(List<Likes> changed, boolean liked) {
+        appliedChanges.addAndGet(changed.size());
+        changed.forEach(like -> {
+            if (liked) {
+                likesChangePublisher.likeAdded(like.getFilmId(), like.getUserId());
+            } else {
+                likesChangePublisher.likeRemoved(like.getFilmId(), like.getUserId());
+            }
+        });
+    }
+}
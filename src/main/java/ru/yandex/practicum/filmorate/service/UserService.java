@@ -1,28 +1,56 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.cache.VersionRegistry;
+import ru.yandex.practicum.filmorate.dto.BulkImportResult;
+import ru.yandex.practicum.filmorate.dto.BulkItemResult;
+import ru.yandex.practicum.filmorate.dto.FriendSuggestionDto;
 import ru.yandex.practicum.filmorate.dto.NewUserRequest;
+import ru.yandex.practicum.filmorate.dto.PageDto;
 import ru.yandex.practicum.filmorate.dto.UpdateUserRequest;
 import ru.yandex.practicum.filmorate.dto.UserDto;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
 import ru.yandex.practicum.filmorate.mapper.UserMapper;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.FriendshipStorage;
 import ru.yandex.practicum.filmorate.storage.UserStorage;
+import ru.yandex.practicum.filmorate.utils.PageCursor;
 import ru.yandex.practicum.filmorate.utils.UserValidate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.stream.IntStream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
+    private static final int BULK_BATCH_SIZE = 1000;
+    private static final String CSV_HEADER = "email,login,name,birthday";
+    private static final int MAX_SUGGESTIONS = 100;
+
     private final UserStorage userStorage;
     private final UserValidate userValidate;
     private final FriendshipStorage friendshipStorage;
+    private final ObjectMapper objectMapper;
+    private final FriendGraphIndex friendGraphIndex;
+    private final LikesChangePublisher likesChangePublisher;
+    private final VersionRegistry versionRegistry;
 
     // Получение всех пользователей
     public Collection<UserDto> findAll() {
@@ -31,6 +59,15 @@ public class UserService {
                 .toList();
     }
 
+    // Получение страницы пользователей, следующей за курсором
+    public PageDto<UserDto> findPage(int limit, String after) {
+        PageCursor.validateLimit(limit);
+        List<UserDto> users = userStorage.findPage(PageCursor.decode(after), limit + 1).stream()
+                .map(UserMapper::mapToDto)
+                .toList();
+        return PageCursor.toPage(users, limit, UserDto::getId);
+    }
+
     // Получение пользователя по id
     public UserDto getById(Long userId) {
         return userStorage.findById(userId)
@@ -44,9 +81,21 @@ public class UserService {
         userValidate.validateUser(user);
 
         User createdUser = userStorage.create(user);
+        versionRegistry.userChanged(createdUser.getId());
         return UserMapper.mapToDto(createdUser);
     }
 
+    // Пакетная загрузка пользователей из потока NDJSON: одна строка - один NewUserRequest
+    public BulkImportResult createBulkFromNdjson(InputStream in) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(NewUserRequest.class);
+        return createBulk(in, reader::readValue);
+    }
+
+    // Пакетная загрузка пользователей из CSV с колонками email,login,name,birthday. Строка заголовка необязательна
+    public BulkImportResult createBulkFromCsv(InputStream in) throws IOException {
+        return createBulk(in, UserService::parseCsvRow);
+    }
+
     // Обновление пользователя
     public UserDto update(UpdateUserRequest request) {
         User user = UserMapper.mapToUser(request);
@@ -58,120 +107,241 @@ public class UserService {
                     return new NotFoundException("Пользователь не найден");
                 });
         user = UserMapper.updateUserFields(oldUser, request);
-        return UserMapper.mapToDto(userStorage.update(user));
+        User updatedUser = userStorage.update(user);
+        versionRegistry.userChanged(updatedUser.getId());
+        return UserMapper.mapToDto(updatedUser);
     }
 
     // Удаление пользователя
     public void delete(Long userId) {
         userStorage.delete(userId);
+        friendGraphIndex.removeUser(userId);
+        likesChangePublisher.userRemoved(userId);
     }
 
-    // Метод добавления пользователей в друзья
+    // Метод добавления пользователей в друзья. Пользователи только проверяются на существование,
+    // сама дружба пишется одним условным запросом, и по его результату понятно, были ли они уже друзьями
     public void addFriend(Long userId, Long friendId) {
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка несуществующего пользователя с Id:{} добавить в кого-то в друзья", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка несуществующего пользователя с Id:{} добавить в кого-то в друзья", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
 
-        final User friend = userStorage.findById(friendId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка добавить в друзья несуществующего пользователя с Id:{}", friendId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        if (!userStorage.exists(friendId)) {
+            log.warn("Попытка добавить в друзья несуществующего пользователя с Id:{}", friendId);
+            throw new NotFoundException("Пользователь не найден");
+        }
 
-        if (user.equals(friend)) {
+        if (userId.equals(friendId)) {
             log.warn("Попытка добавить самого себя в друзья");
             throw new DuplicateException("Нельзя добавить самого себя в друзья");
         }
 
-        if (user.getFriends().contains(friendId)) {
+        if (!friendshipStorage.addFriend(userId, friendId)) {
             log.warn("Попытка пользователя с Id:{} снова добавить в друзья пользователя с Id:{}", userId, friendId);
             throw new DuplicateException("Пользователь уже отправлял запрос на дружбу");
         }
-        user.getFriends().add(friendId);
-        userStorage.update(user);
-
-        friendshipStorage.addFriend(userId, friendId);
+        friendGraphIndex.addFriend(userId, friendId);
+        versionRegistry.userChanged(userId);
         log.debug("Пользователи с Id:{} и Id:{} теперь друзья", userId, friendId);
     }
 
     // Метод удаления пользователей из друзей
     public void removeFriend(Long userId, Long friendId) {
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка несуществующего пользователя с Id:{} удалить кого-то из друзей", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка несуществующего пользователя с Id:{} удалить кого-то из друзей", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
 
-        final User friend = userStorage.findById(friendId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка удалить из друзей несуществующего пользователя с Id:{}", friendId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
+        if (!userStorage.exists(friendId)) {
+            log.warn("Попытка удалить из друзей несуществующего пользователя с Id:{}", friendId);
+            throw new NotFoundException("Пользователь не найден");
+        }
 
-        if (user.equals(friend)) {
+        if (userId.equals(friendId)) {
             log.warn("При удалении из друзей были переданы одинаковые Id: userId={}, friendId={}", userId, friendId);
             throw new DuplicateException("Нельзя удалить самого себя из друзей");
         }
 
-        if (!user.getFriends().contains(friendId)) {
+        if (!friendshipStorage.removeFriend(userId, friendId)) {
             log.warn("Пользователь с Id:{} не добавлял в друзья пользователя с Id:{}", userId, friendId);
             return;
         }
-
-        user.getFriends().remove(friendId);
-        userStorage.update(user);
-
-        friendshipStorage.removeFriend(userId, friendId);
+        friendGraphIndex.removeFriend(userId, friendId);
+        versionRegistry.userChanged(userId);
         log.debug("Пользователи с Id:{} и Id:{} больше не друзья", userId, friendId);
     }
 
     // Метод получения списка всех друзей пользователя
     public Collection<UserDto> findAllFriends(Long userId) {
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка получить друзей несуществующего пользователя c Id:{}", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
-
-        // Возвращаем пустую коллекцию, если у пользователя нет друзей
-        if (user.getFriends() == null || user.getFriends().isEmpty()) {
-            log.debug("У пользователя с Id:{} нет друзей", userId);
-            return Collections.emptyList();
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка получить друзей несуществующего пользователя c Id:{}", userId);
+            throw new NotFoundException("Пользователь не найден");
         }
 
-        return userStorage.findAll().stream()
-                .filter(u -> user.getFriends().contains(u.getId()))
+        return friendshipStorage.findAllFriends(userId).stream()
                 .map(UserMapper::mapToDto)
                 .toList();
     }
 
     // Метод получения общих друзей
     public Collection<UserDto> findCommonFriends(Long userId, Long friendId) {
-        final User user = userStorage.findById(userId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка получить общих друзей у несуществующего пользователя c Id:{}", userId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
-
-        final User friend = userStorage.findById(friendId)
-                .orElseThrow(() -> {
-                    log.warn("Попытка получить общих друзей с несуществующим пользователем с Id:{}",friendId);
-                    throw new NotFoundException("Пользователь не найден");
-                });
-
-        // Поиск пересечения друзей
-        Set<Long> intersection = new HashSet<>(user.getFriends());
-        intersection.retainAll(friend.getFriends());
+        if (!userStorage.existsAll(List.of(userId, friendId))) {
+            log.warn("Попытка получить общих друзей пользователей c Id:{} и Id:{}, один из них не существует",
+                    userId, friendId);
+            throw new NotFoundException("Пользователь не найден");
+        }
 
-        if (intersection.isEmpty()) {
+        Collection<User> commonFriends = friendshipStorage.findCommonFriends(userId, friendId);
+        if (commonFriends.isEmpty()) {
             log.debug("У пользователей {} и {} нет общих друзей", userId, friendId);
         }
 
-        return userStorage.findAll().stream()
-                .filter(u -> intersection.contains(u.getId()))
+        return commonFriends.stream()
                 .map(UserMapper::mapToDto)
                 .toList();
     }
-}
\ No newline at end of file
+
+    // Метод получения рекомендаций друзей по количеству общих друзей из графа дружбы в памяти
+    public Collection<FriendSuggestionDto> findFriendSuggestions(Long userId, int limit) {
+        if (limit <= 0 || limit > MAX_SUGGESTIONS) {
+            log.warn("Передано некорректное количество рекомендаций: {}", limit);
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_SUGGESTIONS);
+        }
+
+        if (!userStorage.exists(userId)) {
+            log.warn("Попытка получить рекомендации друзей для несуществующего пользователя c Id:{}", userId);
+            throw new NotFoundException("Пользователь не найден");
+        }
+
+        return friendGraphIndex.findSuggestions(userId, limit);
+    }
+
+    // Вспомогательный метод пакетной загрузки. Поток читается построчно кусками по BULK_BATCH_SIZE строк:
+    // строки куска разбираются и проверяются параллельно, корректные пишутся в БД одним пакетом
+    private BulkImportResult createBulk(InputStream in, RowParser parser) throws IOException {
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        BulkImportResult result = new BulkImportResult();
+        List<String> chunk = new ArrayList<>(BULK_BATCH_SIZE);
+
+        long lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            chunk.add(line);
+            if (chunk.size() == BULK_BATCH_SIZE) {
+                saveBulkChunk(lineNumber + 1, chunk, parser, result);
+                lineNumber += chunk.size();
+                chunk.clear();
+                log.info("Пакетная загрузка пользователей: обработано строк {}, добавлено {}, ошибок {}",
+                        lineNumber, result.getCreated(), result.getFailed());
+            }
+        }
+        saveBulkChunk(lineNumber + 1, chunk, parser, result);
+
+        result.getFailedItems().sort(Comparator.comparingLong(BulkItemResult::getLine));
+        log.info("Пакетная загрузка пользователей завершена: добавлено {}, ошибок {}",
+                result.getCreated(), result.getFailed());
+        return result;
+    }
+
+    // Вспомогательный метод для разбора, проверки и записи куска строк, firstLine - номер первой строки куска
+    private void saveBulkChunk(long firstLine, List<String> chunk, RowParser parser, BulkImportResult result) {
+        List<ParsedRow> rows = IntStream.range(0, chunk.size())
+                .parallel()
+                .mapToObj(idx -> parseRow(firstLine + idx, chunk.get(idx), parser))
+                .toList();
+
+        List<User> users = new ArrayList<>();
+        List<Long> userLines = new ArrayList<>();
+        for (ParsedRow row : rows) {
+            if (row.error() != null) {
+                result.addFailed(row.line(), row.error());
+            } else if (row.user() != null) {
+                users.add(row.user());
+                userLines.add(row.line());
+            }
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        try {
+            addBulkCreated(userStorage.createBatch(users), result);
+        } catch (DataAccessException | DuplicateException e) {
+            // Пакет откатился целиком: пользователи сохраняются по одному, чтобы ошибкой отметить только нужные строки
+            log.warn("Пакет из {} пользователей не сохранен, повтор по одному: {}", users.size(), e.getMessage());
+            for (int idx = 0; idx < users.size(); idx++) {
+                try {
+                    addBulkCreated(userStorage.createBatch(List.of(users.get(idx))), result);
+                } catch (DuplicateException ex) {
+                    result.addFailed(userLines.get(idx), ex.getMessage());
+                } catch (DataAccessException ex) {
+                    log.warn("Пользователь из строки {} не сохранен: {}", userLines.get(idx), ex.getMessage());
+                    result.addFailed(userLines.get(idx), "Не удалось сохранить пользователя");
+                }
+            }
+        }
+    }
+
+    // Вспомогательный метод для учета пользователей, сохраненных при пакетной загрузке
+    private void addBulkCreated(List<User> created, BulkImportResult result) {
+        for (User user : created) {
+            versionRegistry.userChanged(user.getId());
+            result.addCreated();
+        }
+    }
+
+    // Вспомогательный метод для разбора и проверки одной строки. Пустые строки и заголовок CSV пропускаются
+    private ParsedRow parseRow(long line, String text, RowParser parser) {
+        if (text.isBlank()) {
+            return new ParsedRow(line, null, null);
+        }
+
+        try {
+            NewUserRequest request = parser.parse(text);
+            if (request == null) {
+                return new ParsedRow(line, null, null);
+            }
+            User user = UserMapper.mapToUser(request);
+            userValidate.validateUser(user);
+            return new ParsedRow(line, user, null);
+        } catch (JsonProcessingException e) {
+            return new ParsedRow(line, null, "Некорректный JSON: " + e.getOriginalMessage());
+        } catch (ValidationException e) {
+            return new ParsedRow(line, null, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            return new ParsedRow(line, null, "Некорректные данные пользователя");
+        }
+    }
+
+    // Вспомогательный метод для разбора строки CSV. Значения не должны содержать запятых
+    private static NewUserRequest parseCsvRow(String line) {
+        if (line.trim().equalsIgnoreCase(CSV_HEADER)) {
+            return null;
+        }
+
+        String[] columns = line.split(",", -1);
+        if (columns.length != 4) {
+            throw new ValidationException("Ожидается 4 колонки: " + CSV_HEADER);
+        }
+
+        NewUserRequest request = new NewUserRequest();
+        request.setEmail(columns[0].trim());
+        request.setLogin(columns[1].trim());
+        request.setName(columns[2].trim());
+        try {
+            request.setBirthday(columns[3].isBlank() ? null : LocalDate.parse(columns[3].trim()));
+        } catch (DateTimeParseException e) {
+            throw new ValidationException("Некорректная дата рождения");
+        }
+        return request;
+    }
+
+    @FunctionalInterface
+    private interface RowParser {
+        NewUserRequest parse(String line) throws IOException;
+    }
+
+    private record ParsedRow(long line, User user, String error) {
+    }
+}
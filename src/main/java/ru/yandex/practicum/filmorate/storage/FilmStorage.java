@@ -1,21 +1,54 @@
 package ru.yandex.practicum.filmorate.storage;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
     Film create(Film film);
 
+    List<Film> createBatch(List<Film> films);
+
     void delete(Long filmId);
 
     Film update(Film film);
 
-    Optional<Film> findById(Long filmId);
+    boolean exists(Long filmId);
+
+    boolean existsAll(Collection<Long> filmIds);
+
+    default Optional<Film> findById(Long filmId) {
+        return findById(filmId, FilmField.ALL);
+    }
+
+    Optional<Film> findById(Long filmId, Set<FilmField> fields);
+
+    default Collection<Film> findAll() {
+        return findAll(FilmField.ALL);
+    }
+
+    Collection<Film> findAll(Set<FilmField> fields);
+
+    default Collection<Film> findByIds(Collection<Long> filmIds) {
+        return findByIds(filmIds, FilmField.ALL);
+    }
+
+    Collection<Film> findByIds(Collection<Long> filmIds, Set<FilmField> fields);
+
+    List<Film> findPage(long afterId, int limit, Set<FilmField> fields);
+
+    void exportAll(Consumer<Film> consumer);
+
+    Map<Long, Long> findLikesCounts();
 
-    Collection<Film> findAll();
+    List<Long> findLikesCountMismatches();
 
-    Collection<Film> findPopularFilms(int count);
+    void recountLikes(Collection<Long> filmIds);
 }
\ No newline at end of file
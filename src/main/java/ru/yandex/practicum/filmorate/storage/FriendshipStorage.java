@@ -1,16 +1,20 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import ru.yandex.practicum.filmorate.model.Friendship;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.function.Consumer;
 
 public interface FriendshipStorage {
 
-    void addFriend(Long userId, Long friendId);
+    boolean addFriend(Long userId, Long friendId);
 
-    void removeFriend(Long userId, Long friendId);
+    boolean removeFriend(Long userId, Long friendId);
 
     Collection<User> findAllFriends(Long userId);
 
     Collection<User> findCommonFriends(Long userId, Long friendId);
+
+    void exportAll(Consumer<Friendship> consumer);
 }
\ No newline at end of file
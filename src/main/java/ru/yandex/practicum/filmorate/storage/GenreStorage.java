@@ -1,9 +1,12 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface GenreStorage {
 
@@ -13,5 +16,13 @@ public interface GenreStorage {
 
     Collection<Genre> findGenreForFilm(Long filmId);
 
+    Map<Long, Set<Genre>> findGenresForFilms(Collection<Long> filmIds);
+
+    Map<Long, Set<Genre>> findGenresForAllFilms();
+
     void setGenreForFilm(Long filmId, Collection<Genre> genres);
+
+    void addGenresForFilms(Collection<Film> films);
+
+    void reload();
 }
\ No newline at end of file
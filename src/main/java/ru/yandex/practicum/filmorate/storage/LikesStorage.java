@@ -3,12 +3,32 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.Likes;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface LikesStorage {
 
-    void addLikeToFilm(Long filmId, Long userId);
+    boolean addLikeToFilm(Long filmId, Long userId);
 
-    void removeLikeFromFilm(Long filmId, Long userId);
+    boolean removeLikeFromFilm(Long filmId, Long userId);
+
+    List<Likes> addLikesBatch(Collection<Likes> likes);
+
+    List<Likes> removeLikesBatch(Collection<Likes> likes);
 
     Collection<Likes> getLikesOnFilm(Long filmId);
+
+    Map<Long, Set<Long>> getLikesOnFilms(Collection<Long> filmIds);
+
+    Map<Long, Set<Long>> getLikesOnAllFilms();
+
+    Map<Long, Long> countLikesByFilm();
+
+    List<Long> findFilmsLikedByUser(Long userId, long afterFilmId, int limit);
+
+    List<Long> findFilmsLikedByFriends(Long userId, int limit);
+
+    void exportAll(Consumer<Likes> consumer);
 }
\ No newline at end of file
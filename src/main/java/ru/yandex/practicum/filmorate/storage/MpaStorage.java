@@ -12,4 +12,6 @@ public interface MpaStorage {
     Optional<Mpa> findMpaById(Long ratingId);
 
     Optional<Mpa> findMpaFilm(Long filmId);
+
+    void reload();
 }
\ No newline at end of file
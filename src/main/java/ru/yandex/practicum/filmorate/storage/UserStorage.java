@@ -3,17 +3,26 @@ package ru.yandex.practicum.filmorate.storage;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface UserStorage {
 
     User create(User user);
 
+    List<User> createBatch(List<User> users);
+
     void delete(Long findId);
 
     User update(User user);
 
+    boolean exists(Long userId);
+
+    boolean existsAll(Collection<Long> userIds);
+
     Optional<User> findById(Long userId);
 
     Collection<User> findAll();
+
+    List<User> findPage(long afterId, int limit);
 }
\ No newline at end of file
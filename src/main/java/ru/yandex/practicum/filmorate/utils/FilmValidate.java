@@ -15,6 +15,7 @@ import java.time.LocalDate;
 @Component
 public class FilmValidate {
     public static final LocalDate DATE_FIRST_FILM = LocalDate.of(1895, 12, 28);
+    public static final int MAX_NAME_LENGTH = 200;
     public static final int MAX_DESCRIPTION_LENGTH = 200;
 
     // Вспомогательный метод проверки выполнения необходимых условий
@@ -25,6 +26,11 @@ public class FilmValidate {
             throw new ValidationException("Название фильма не может быть пустым");
         }
 
+        if (film.getName().length() > MAX_NAME_LENGTH) {
+            log.error("Попытка добавить фильм с недопустимой длиной названия");
+            throw new ValidationException("Недопустимая длина названия");
+        }
+
         if (film.getReleaseDate().isBefore(DATE_FIRST_FILM)) {
             log.error("Попытка добавить фильм с недопустимой датой релиза");
             throw new ValidationException("Недопустимая дата релиза");
@@ -0,0 +1,66 @@
+package ru.yandex.practicum.filmorate.utils;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import ru.yandex.practicum.filmorate.dto.PageDto;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Утилитарный класс для keyset-пагинации: курсор - это закодированный id последней записи страницы
+ */
+
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class PageCursor {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String PREFIX = "id:";
+
+    // Кодирование id последней записи страницы в непрозрачный курсор
+    public static String encode(long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Декодирование курсора в id, после которого начинается следующая страница
+    public static long decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return 0;
+        }
+
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!value.startsWith(PREFIX)) {
+                throw new IllegalArgumentException(value);
+            }
+            return Long.parseLong(value.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            log.warn("Передан некорректный курсор страницы: {}", cursor);
+            throw new ValidationException("Некорректный курсор страницы");
+        }
+    }
+
+    // Проверка размера страницы
+    public static void validateLimit(int limit) {
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            log.warn("Передан некорректный размер страницы: {}", limit);
+            throw new ValidationException("Размер страницы должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
+
+    // Сборка страницы из limit + 1 загруженных записей: лишняя запись означает, что есть следующая страница
+    public static <T> PageDto<T> toPage(List<T> rows, int limit, Function<T, Long> idExtractor) {
+        if (rows.size() <= limit) {
+            return new PageDto<>(rows, null);
+        }
+
+        List<T> items = rows.subList(0, limit);
+        return new PageDto<>(items, encode(idExtractor.apply(items.get(limit - 1))));
+    }
+}
@@ -0,0 +1,62 @@
+package ru.yandex.practicum.filmorate.utils;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Утилитарный класс для работы с отсортированными массивами long без повторов.
+ * Массивы не изменяются на месте: вставка и удаление возвращают новый массив
+ */
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class SortedLongArrays {
+    public static final long[] EMPTY = new long[0];
+
+    // Проверка наличия значения двоичным поиском
+    public static boolean contains(long[] values, long value) {
+        return Arrays.binarySearch(values, value) >= 0;
+    }
+
+    // Вставка значения с сохранением порядка. Если значение уже есть, возвращается исходный массив
+    public static long[] insert(long[] values, long value) {
+        int idx = Arrays.binarySearch(values, value);
+        if (idx >= 0) {
+            return values;
+        }
+
+        int position = -idx - 1;
+        long[] result = new long[values.length + 1];
+        System.arraycopy(values, 0, result, 0, position);
+        result[position] = value;
+        System.arraycopy(values, position, result, position + 1, values.length - position);
+        return result;
+    }
+
+    // Удаление значения. Если значения нет, возвращается исходный массив
+    public static long[] remove(long[] values, long value) {
+        int idx = Arrays.binarySearch(values, value);
+        if (idx < 0) {
+            return values;
+        }
+
+        long[] result = new long[values.length - 1];
+        System.arraycopy(values, 0, result, 0, idx);
+        System.arraycopy(values, idx + 1, result, idx, values.length - idx - 1);
+        return result;
+    }
+
+    // Построение отсортированного массива без повторов из коллекции id
+    public static long[] of(Collection<Long> values) {
+        if (values.isEmpty()) {
+            return EMPTY;
+        }
+        return values.stream()
+                .mapToLong(Long::longValue)
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+}
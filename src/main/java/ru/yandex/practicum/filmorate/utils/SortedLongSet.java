@@ -0,0 +1,74 @@
+package ru.yandex.practicum.filmorate.utils;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Множество id поверх отсортированного массива long: проверка наличия - двоичный поиск без упаковки в Long.
+ * Исходный массив не изменяется, add и remove подменяют массив только у этого экземпляра
+ */
+
+public class SortedLongSet extends AbstractSet<Long> {
+
+    private long[] values;
+
+    public SortedLongSet(long[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return value instanceof Long id && SortedLongArrays.contains(values, id);
+    }
+
+    @Override
+    public boolean add(Long value) {
+        long[] result = SortedLongArrays.insert(values, value);
+        boolean changed = result != values;
+        values = result;
+        return changed;
+    }
+
+    @Override
+    public boolean remove(Object value) {
+        if (!(value instanceof Long id)) {
+            return false;
+        }
+        long[] result = SortedLongArrays.remove(values, id);
+        boolean changed = result != values;
+        values = result;
+        return changed;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        long[] snapshot = values;
+        return new Iterator<>() {
+            private int idx;
+
+            @Override
+            public boolean hasNext() {
+                return idx < snapshot.length;
+            }
+
+            @Override
+            public Long next() {
+                if (idx >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                return snapshot[idx++];
+            }
+        };
+    }
+
+    // Отсортированный массив id, массив нельзя изменять
+    public long[] toSortedArray() {
+        return values;
+    }
+}
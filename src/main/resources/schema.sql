@@ -10,6 +10,7 @@ CREATE TABLE IF NOT EXISTS films (
   release_date date NOT NULL,
   duration bigint NOT NULL,
   rating_id bigint NOT NULL,
+  likes_count bigint NOT NULL DEFAULT 0,
   FOREIGN KEY (rating_id) REFERENCES mpa_rating (rating_id)
 );
 
@@ -48,4 +49,23 @@ CREATE TABLE IF NOT EXISTS film_genres (
   PRIMARY KEY (film_id, genre_id),
   FOREIGN KEY (film_id) REFERENCES films (film_id) ON DELETE CASCADE,
   FOREIGN KEY (genre_id) REFERENCES genre (genre_id)
-);
\ No newline at end of file
+);
+
+-- Счетчик лайков для баз, созданных до появления колонки likes_count. Колонка добавляется без значения
+-- по умолчанию, поэтому заполняются только строки, у которых счетчика еще нет, - один раз при миграции
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count bigint;
+
+UPDATE films AS f SET likes_count = (SELECT COUNT(*) FROM likes AS l WHERE l.film_id = f.film_id)
+WHERE f.likes_count IS NULL;
+
+ALTER TABLE films ALTER COLUMN likes_count SET DEFAULT 0;
+
+ALTER TABLE films ALTER COLUMN likes_count SET NOT NULL;
+
+-- Популярные фильмы отдаются из рейтинга в памяти, счетчик читается только целиком при старте,
+-- поэтому индекс по нему лишь замедлял бы каждый лайк
+DROP INDEX IF EXISTS films_likes_count_idx;
+
+-- Выборки лайков по пользователю (лента друзей, лайки пользователя) и каскадное удаление пользователя
+-- без полного просмотра likes, первичный ключ которой начинается с film_id
+CREATE INDEX IF NOT EXISTS likes_user_film_idx ON likes (user_id, film_id);
@@ -130,6 +130,22 @@ class FilmDbStorageTest {
         assertEquals(2, retrievedFilm.getGenres().size(), "Должно быть 2 жанра");
     }
 
+    // Тест ответа на обновление фильма: названия рейтинга и жанров заполняются из справочников
+    @Test
+    public void update_returnsFilmWithMpaAndGenreNames() {
+        Film createdFilm = filmDbStorage.create(createTestFilm("Фильм", "Описание фильма",
+                LocalDate.of(1995, 2, 13), 120, 1L, Set.of(1L)));
+
+        Film film = createTestFilm("Фильм 2", "Описание фильма 2",
+                LocalDate.of(2001, 3, 21), 145, 2L, Set.of(2L, 1L));
+        film.setId(createdFilm.getId());
+        Film updatedFilm = filmDbStorage.update(film);
+
+        assertEquals("PG", updatedFilm.getMpa().getName(), "Название MPA должно быть 'PG'");
+        assertEquals(List.of("Комедия", "Драма"), updatedFilm.getGenres().stream().map(Genre::getName).toList(),
+                "Жанры должны быть с названиями и упорядочены по id");
+    }
+
     // Тест удаления фильма по id
     @Test
     public void delete_existingFilm_removesFilm() {
@@ -145,41 +161,121 @@ class FilmDbStorageTest {
         assertEquals(Optional.empty(), filmOptional, "Созданный фильм должен быть удален");
     }
 
-    // Тест на получение списка популярных фильмов
+    // Тест получения счетчиков лайков фильмов
     @Test
-    public void getPopularFilms_returnsFilmsOrderedByLikes() {
+    public void findLikesCounts_returnsLikesCountOfEveryFilm() {
         Film film1 = createTestFilm("Фильм 1", "Описание 1",
                 LocalDate.of(2000, 1, 1), 100, 1L, Set.of(1L));
         Film film2 = createTestFilm("Фильм 2", "Описание 2",
                 LocalDate.of(2001, 1, 1), 120, 2L, Set.of(2L));
+        Film film3 = createTestFilm("Фильм 3", "Описание 3",
+                LocalDate.of(2002, 1, 1), 90, 1L, Set.of());
 
         // Сохранение фильмов в БД
         Film createdFilm = filmDbStorage.create(film1);
         Film createdFilm2 = filmDbStorage.create(film2);
+        Film createdFilm3 = filmDbStorage.create(film3);
 
-        // Добавление лайков (film2 - 2 лайка, film1 - 0 лайков)
+        // Добавление лайков (film2 - 2 лайка, film1 - 1 лайк, film3 - без лайков)
         likesDbStorage.addLikeToFilm(createdFilm2.getId(), 1L);
         likesDbStorage.addLikeToFilm(createdFilm2.getId(), 2L);
         likesDbStorage.addLikeToFilm(createdFilm.getId(), 2L);
 
-        Collection<Film> popularFilms = filmDbStorage.findPopularFilms(2);
+        assertEquals(Map.of(createdFilm.getId(), 1L, createdFilm2.getId(), 2L, createdFilm3.getId(), 0L),
+                filmDbStorage.findLikesCounts(), "Счетчики должны совпадать с числом лайков каждого фильма");
+        assertTrue(filmDbStorage.findLikesCountMismatches().isEmpty(), "Расхождений со счетчиком быть не должно");
+    }
+
+    // Тест поиска и пересчета счетчика лайков, который разошелся с таблицей likes
+    @Test
+    public void findLikesCountMismatches_counterDrift_foundAndRecounted() {
+        Film film1 = filmDbStorage.create(createTestFilm("Фильм 1", "Описание 1",
+                LocalDate.of(2000, 1, 1), 100, 1L, Set.of(1L)));
+        Film film2 = filmDbStorage.create(createTestFilm("Фильм 2", "Описание 2",
+                LocalDate.of(2001, 1, 1), 120, 2L, Set.of(2L)));
+        likesDbStorage.addLikeToFilm(film1.getId(), 1L);
+        likesDbStorage.addLikeToFilm(film2.getId(), 1L);
+
+        // Счетчик, измененный в обход хранилища лайков
+        jdbcTemplate.update("UPDATE films SET likes_count = 5 WHERE film_id = ?", film2.getId());
+
+        assertEquals(List.of(film2.getId()), filmDbStorage.findLikesCountMismatches(),
+                "Должен найтись фильм с неверным счетчиком");
+
+        filmDbStorage.recountLikes(List.of(film2.getId()));
+
+        assertTrue(filmDbStorage.findLikesCountMismatches().isEmpty(), "После пересчета расхождений быть не должно");
+        assertEquals(1L, filmDbStorage.findLikesCounts().get(film2.getId()), "Счетчик должен быть пересчитан");
+    }
+
+    // Тест получения фильма без незапрошенных связей
+    @Test
+    public void findById_withoutRelationFields_skipsLikesAndGenres() {
+        Film film = createTestFilm("Фильм", "Описание фильма",
+                LocalDate.of(1995, 2, 13), 120, 1L, Set.of(1L));
+        Film createdFilm = filmDbStorage.create(film);
+        likesDbStorage.addLikeToFilm(createdFilm.getId(), 1L);
 
-        assertNotNull(popularFilms, "Список не должен быть null");
-        assertEquals(2, popularFilms.size(), "Должны вернуться 2 фильма");
+        Film retrievedFilm = filmDbStorage.findById(createdFilm.getId(),
+                EnumSet.of(FilmField.ID, FilmField.NAME, FilmField.LIKES_COUNT)).orElseThrow();
 
-        // Преобразование в список для проверки порядка
-        List<Film> filmsList = new ArrayList<>(popularFilms);
+        assertNull(retrievedFilm.getLikesByUsers(), "Лайки не должны загружаться");
+        assertNull(retrievedFilm.getGenres(), "Жанры не должны загружаться");
+        assertEquals(1L, retrievedFilm.getLikesCount(), "Количество лайков должно быть 1");
+    }
 
-        // Проверка порядка сортировки (по убыванию лайков)
-        assertEquals(createdFilm2.getId(), filmsList.get(0).getId(),
-                "Первым должен быть фильм с наибольшим количеством лайков");
-        assertEquals(2, filmsList.get(0).getLikesByUsers().size(),
-                "У первого фильма должно быть 2 лайка");
+    // Тест потоковой выгрузки: строки соединения с жанрами собираются в фильмы по порядку id, жанры - по id
+    @Test
+    public void exportAll_groupsGenreRowsIntoFilmsOrderedById() {
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id) " +
+                "VALUES (3, 'Фильм3', 'Описание', '2000-01-01', 100, 1), " +
+                "(1, 'Фильм1', 'Описание', '2000-01-01', 100, 2), " +
+                "(2, 'Фильм2', 'Описание', '2000-01-01', 100, 1)");
+        jdbcTemplate.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 2), (3, 1), (1, 1)");
+
+        List<Film> exported = new ArrayList<>();
+        filmDbStorage.exportAll(exported::add);
+
+        assertEquals(List.of(1L, 2L, 3L), exported.stream().map(Film::getId).toList(),
+                "Каждый фильм должен выгружаться один раз по возрастанию id");
+        assertEquals(List.of(1L, 2L), exported.get(0).getGenres().stream().map(Genre::getId).toList(),
+                "Жанры фильма должны быть отсортированы по id");
+        assertEquals("Драма", exported.get(0).getGenres().stream().toList().get(1).getName(),
+                "Название жанра должно выгружаться");
+        assertEquals("PG", exported.get(0).getMpa().getName(), "Название рейтинга должно выгружаться");
+        assertTrue(exported.get(1).getGenres().isEmpty(), "У фильма без жанров список жанров должен быть пустым");
+        assertEquals(List.of(1L), exported.get(2).getGenres().stream().map(Genre::getId).toList(),
+                "Жанры последнего фильма должны выгружаться");
+    }
 
-        assertEquals(createdFilm.getId(), filmsList.get(1).getId(),
-                "Вторым должен быть фильм с меньшим количеством лайков");
-        assertEquals(1, filmsList.get(1).getLikesByUsers().size(),
-                "У второго фильма должен быть 1 лайк");
+    // Тест загрузки набора фильмов больше MAX_IN_PARAMS: фильмы, жанры и лайки читаются частями без потерь
+    @Test
+    public void findByIdsAndFindAll_moreIdsThanOneInClause_loadRelationsForEveryFilm() {
+        int count = BaseDbStorage.MAX_IN_PARAMS + 1;
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            rows.add(new Object[]{id, "Фильм" + id});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO films (film_id, name, description, release_date, duration, " +
+                "rating_id) VALUES (?, ?, 'Описание', '2000-01-01', 100, 1)", rows);
+        jdbcTemplate.update("INSERT INTO film_genres (film_id, genre_id) VALUES (1, 1), (?, 2)", count);
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (1, 1), (?, 2)", count);
+
+        List<Long> ids = rows.stream().map(row -> (Long) row[0]).toList();
+        Map<Long, Film> byIds = filmDbStorage.findByIds(ids).stream()
+                .collect(Collectors.toMap(Film::getId, film -> film));
+        Map<Long, Film> all = filmDbStorage.findAll().stream()
+                .collect(Collectors.toMap(Film::getId, film -> film));
+
+        for (Map<Long, Film> films : List.of(byIds, all)) {
+            assertEquals(count, films.size(), "Должны загрузиться все фильмы");
+            assertEquals(Set.of(1L), films.get(1L).getLikesByUsers(), "Неверные лайки первого фильма");
+            assertEquals(Set.of(2L), films.get((long) count).getLikesByUsers(), "Неверные лайки последнего фильма");
+            assertEquals(1L, films.get(1L).getGenres().iterator().next().getId(), "Неверный жанр первого фильма");
+            assertEquals(2L, films.get((long) count).getGenres().iterator().next().getId(),
+                    "Неверный жанр последнего фильма");
+            assertTrue(films.get(2L).getGenres().isEmpty(), "У фильма без жанров жанров быть не должно");
+        }
     }
 
     // Вспомогательный метод для создания тестового фильма
@@ -8,25 +8,37 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.cache.FriendsCache;
 import ru.yandex.practicum.filmorate.dal.mappers.FriendshipRowMapper;
 import ru.yandex.practicum.filmorate.dal.mappers.UserRowMapper;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.Collection;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
-@Import({FriendshipDbStorage.class, FriendshipRowMapper.class, UserDbStorage.class, UserRowMapper.class})
+@Import({
+        FriendshipDbStorage.class,
+        FriendshipRowMapper.class,
+        UserDbStorage.class,
+        UserRowMapper.class,
+        FriendsCache.class})
 public class FriendshipDbStorageTest {
 
     private final FriendshipDbStorage friendshipDbStorage;
+    private final UserDbStorage userDbStorage;
     private final JdbcTemplate jdbcTemplate;
+    private final FriendsCache friendsCache;
 
     @BeforeEach
     public void beforeEach() {
+        // Кэш друзей не откатывается вместе с транзакцией теста
+        friendsCache.invalidateAll();
         jdbcTemplate.execute("DELETE FROM friendship");
         jdbcTemplate.execute("DELETE FROM users");
 
@@ -83,4 +95,33 @@ public class FriendshipDbStorageTest {
         assertFalse(commonFriends.isEmpty(), "Список общих друзей пуст");
         assertEquals(3L, commonFriends.iterator().next().getId(), "Неверный id общего друга");
     }
-}
\ No newline at end of file
+
+    // Тест обновления закэшированного списка друзей при добавлении и удалении друга
+    @Test
+    public void addAndRemoveFriend_updatesCachedFriendIds() {
+        assertTrue(userDbStorage.findById(1L).orElseThrow().getFriends().isEmpty(),
+                "Изначально у пользователя не должно быть друзей");
+
+        friendshipDbStorage.addFriend(1L, 3L);
+        friendshipDbStorage.addFriend(1L, 2L);
+        assertArrayEquals(new long[]{2L, 3L}, userDbStorage.findFriendIds(1L),
+                "Закэшированный список друзей должен быть отсортирован и содержать новых друзей");
+
+        friendshipDbStorage.removeFriend(1L, 3L);
+        assertEquals(Set.of(2L), userDbStorage.findById(1L).orElseThrow().getFriends(),
+                "Удаленный друг должен пропасть из закэшированного списка");
+    }
+
+    // Тест идемпотентного добавления и удаления друга: результат показывает, изменилась ли дружба
+    @Test
+    public void addAndRemoveFriend_reportWhetherFriendshipChanged() {
+        assertTrue(friendshipDbStorage.addFriend(1L, 2L), "Первое добавление должно создать дружбу");
+        assertFalse(friendshipDbStorage.addFriend(1L, 2L), "Повторное добавление не должно менять данные");
+
+        assertTrue(friendshipDbStorage.removeFriend(1L, 2L), "Удаление существующей дружбы должно вернуть true");
+        assertFalse(friendshipDbStorage.removeFriend(1L, 2L), "Повторное удаление не должно менять данные");
+
+        assertThrows(NotFoundException.class, () -> friendshipDbStorage.addFriend(1L, 999L),
+                "Добавление несуществующего пользователя в друзья должно выбросить NotFoundException");
+    }
+}
@@ -84,4 +84,41 @@ public class GenreDbStorageTest {
         assertTrue(genres.stream().anyMatch(g -> g.getId() == 2L && g.getName().equals("Драма")),
                 "Должен быть жанр 'Драма' (id=2)");
     }
-}
\ No newline at end of file
+
+    // Тест замены жанров фильма: остаются только новые жанры
+    @Test
+    public void setGenreForFilm_replacesChangedGenresOnly() {
+        genreDbStorage.setGenreForFilm(1L, List.of(genre(1L), genre(2L)));
+        genreDbStorage.setGenreForFilm(1L, List.of(genre(2L), genre(3L)));
+
+        List<Long> genreIds = jdbcTemplate.queryForList(
+                "SELECT genre_id FROM film_genres WHERE film_id = 1 ORDER BY genre_id", Long.class);
+        assertEquals(List.of(2L, 3L), genreIds, "У фильма должны остаться жанры с id 2 и 3");
+    }
+
+    // Тест перезагрузки справочника: снимок загружен при старте, новый жанр виден только после reload
+    @Test
+    public void reload_genreAddedToDb_visibleOnlyAfterReload() {
+        jdbcTemplate.update("INSERT INTO genre (genre_id, name) VALUES (7, 'Мюзикл')");
+        try {
+            assertTrue(genreDbStorage.findById(7L).isEmpty(), "До перезагрузки справочник не должен знать о жанре");
+
+            genreDbStorage.reload();
+
+            assertEquals("Мюзикл", genreDbStorage.findById(7L).orElseThrow().getName(),
+                    "После перезагрузки жанр должен находиться по id");
+            assertEquals(7, genreDbStorage.findAllGenres().size(), "После перезагрузки должно быть 7 жанров");
+        } finally {
+            // Снимок переживает откат транзакции теста, поэтому справочник возвращается к данным data.sql
+            jdbcTemplate.update("DELETE FROM genre WHERE genre_id = 7");
+            genreDbStorage.reload();
+        }
+    }
+
+    // Вспомогательный метод для создания жанра по id
+    private Genre genre(Long id) {
+        Genre genre = new Genre();
+        genre.setId(id);
+        return genre;
+    }
+}
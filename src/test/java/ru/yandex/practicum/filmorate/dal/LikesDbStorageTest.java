@@ -9,12 +9,13 @@ import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.filmorate.dal.mappers.LikesRowMapper;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Likes;
 
 import java.util.Collection;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
@@ -76,4 +77,70 @@ public class LikesDbStorageTest {
         assertTrue(likes.stream().anyMatch(like -> like.getUserId() == 2L),
                 "Должен быть лайк от Саши");
     }
-}
\ No newline at end of file
+
+    // Тест повторного добавления и удаления лайка без ошибок и без изменения счетчика
+    @Test
+    public void addAndRemoveLike_repeated_reportsOnlyActualChanges() {
+        assertTrue(likesDbStorage.addLikeToFilm(1L, 2L), "Первый лайк должен быть добавлен");
+        assertFalse(likesDbStorage.addLikeToFilm(1L, 2L), "Повторный лайк не должен добавляться");
+        assertEquals(1L, jdbcTemplate.queryForObject(
+                "SELECT likes_count FROM films WHERE film_id = 1", Long.class), "Счетчик лайков должен быть равен 1");
+
+        assertTrue(likesDbStorage.removeLikeFromFilm(1L, 2L), "Лайк должен быть удален");
+        assertFalse(likesDbStorage.removeLikeFromFilm(1L, 2L), "Повторное удаление ничего не должно менять");
+        assertEquals(0L, jdbcTemplate.queryForObject(
+                "SELECT likes_count FROM films WHERE film_id = 1", Long.class), "Счетчик лайков должен быть равен 0");
+    }
+
+    // Тест лайка несуществующему фильму и от несуществующего пользователя
+    @Test
+    public void addLike_nonExistentFilmOrUser_throwsNotFoundException() {
+        assertThrows(NotFoundException.class, () -> likesDbStorage.addLikeToFilm(999L, 1L),
+                "Ожидалось NotFoundException при лайке несуществующему фильму");
+        assertThrows(NotFoundException.class, () -> likesDbStorage.addLikeToFilm(1L, 999L),
+                "Ожидалось NotFoundException при лайке от несуществующего пользователя");
+        assertThrows(NotFoundException.class, () -> likesDbStorage.removeLikeFromFilm(1L, 999L),
+                "Ожидалось NotFoundException при удалении лайка несуществующего пользователя");
+    }
+
+    // Тест ленты друзей: фильмы упорядочены по числу лайкнувших их друзей, лайки остальных не учитываются
+    @Test
+    public void findFilmsLikedByFriends_rankedByFriendsCount() {
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id) VALUES " +
+                "(2, 'Второй фильм', 'Описание', '2025-07-14', 100, 1), " +
+                "(3, 'Третий фильм', 'Описание', '2025-07-14', 90, 1)");
+        jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) " +
+                "VALUES (3, 'user@yahoo.com', 'Friend2', 'Ксения', '1996-02-14')");
+        jdbcTemplate.update("INSERT INTO friendship (user_id, friend_id) VALUES (1, 2), (1, 3)");
+
+        likesDbStorage.addLikeToFilm(2L, 2L);
+        likesDbStorage.addLikeToFilm(1L, 2L);
+        likesDbStorage.addLikeToFilm(1L, 3L);
+        likesDbStorage.addLikeToFilm(3L, 1L);
+
+        assertEquals(List.of(1L, 2L), likesDbStorage.findFilmsLikedByFriends(1L, 10),
+                "Первым должен идти фильм, который лайкнули оба друга");
+        assertEquals(List.of(1L), likesDbStorage.findFilmsLikedByFriends(1L, 1),
+                "Размер ленты должен ограничиваться limit");
+        assertTrue(likesDbStorage.findFilmsLikedByFriends(2L, 10).isEmpty(),
+                "У пользователя без друзей лента должна быть пустой");
+    }
+
+    // Тест постраничного получения фильмов, лайкнутых пользователем
+    @Test
+    public void findFilmsLikedByUser_returnsPageAfterCursor() {
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id) VALUES " +
+                "(2, 'Второй фильм', 'Описание', '2025-07-14', 100, 1), " +
+                "(3, 'Третий фильм', 'Описание', '2025-07-14', 90, 1)");
+        likesDbStorage.addLikeToFilm(3L, 1L);
+        likesDbStorage.addLikeToFilm(1L, 1L);
+        likesDbStorage.addLikeToFilm(2L, 2L);
+
+        assertEquals(List.of(1L, 3L), likesDbStorage.findFilmsLikedByUser(1L, 0, 10),
+                "Должны вернуться только фильмы пользователя по возрастанию id");
+        assertEquals(List.of(3L), likesDbStorage.findFilmsLikedByUser(1L, 1L, 10),
+                "Страница должна начинаться после курсора");
+        assertEquals(List.of(1L), likesDbStorage.findFilmsLikedByUser(1L, 0, 1),
+                "Размер страницы должен ограничиваться limit");
+    }
+}
@@ -56,6 +56,13 @@ public class MpaDbStorageTest {
         assertEquals("R", mpa.get().getName(), "Жанр с id:4 должен быть R");
     }
 
+    // Тест получения несуществующего MPA-рейтинга из справочника
+    @Test
+    public void findMpa_unknownId_returnEmpty() {
+        assertTrue(mpaDbStorage.findMpaById(999L).isEmpty(), "Рейтинга с id:999 не должно быть");
+        assertTrue(mpaDbStorage.findMpaById(0L).isEmpty(), "Рейтинга с id:0 не должно быть");
+    }
+
     // Тест получения жанра для указанного фильма
     @Test
     public void findMpaForFilm_returnMpaToFilm() {
@@ -64,4 +71,23 @@ public class MpaDbStorageTest {
         assertEquals(5, mpaFilm.get().getId(), "Фильм должен иметь рейтинг с id=5");
         assertEquals("NC-17", mpaFilm.get().getName(), "Фильм должен иметь рейтинг NC-17");
     }
-}
\ No newline at end of file
+
+    // Тест перезагрузки справочника: снимок загружен при старте, новый рейтинг виден только после reload
+    @Test
+    public void reload_mpaAddedToDb_visibleOnlyAfterReload() {
+        jdbcTemplate.update("INSERT INTO mpa_rating (rating_id, name) VALUES (6, 'TV-MA')");
+        try {
+            assertTrue(mpaDbStorage.findMpaById(6L).isEmpty(), "До перезагрузки справочник не должен знать о рейтинге");
+
+            mpaDbStorage.reload();
+
+            assertEquals("TV-MA", mpaDbStorage.findMpaById(6L).orElseThrow().getName(),
+                    "После перезагрузки рейтинг должен находиться по id");
+            assertEquals(6, mpaDbStorage.findAll().size(), "После перезагрузки должно быть 6 рейтингов");
+        } finally {
+            // Снимок переживает откат транзакции теста, поэтому справочник возвращается к данным data.sql
+            jdbcTemplate.update("DELETE FROM mpa_rating WHERE rating_id = 6");
+            mpaDbStorage.reload();
+        }
+    }
+}
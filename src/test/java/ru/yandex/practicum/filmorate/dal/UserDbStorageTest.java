@@ -8,27 +8,31 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.filmorate.cache.FriendsCache;
 import ru.yandex.practicum.filmorate.dal.mappers.*;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.time.LocalDate;
-import java.util.Collection;
-import java.util.Optional;
+import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @JdbcTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
-@Import({UserDbStorage.class, UserRowMapper.class})
+@Import({UserDbStorage.class, UserRowMapper.class, FriendsCache.class})
 public class UserDbStorageTest {
 
     private final UserDbStorage userDbStorage;
     private final JdbcTemplate jdbcTemplate;
+    private final FriendsCache friendsCache;
 
     @BeforeEach
     public void beforeEach() {
+        // Кэш друзей не откатывается вместе с транзакцией теста
+        friendsCache.invalidateAll();
         // Очистка данных
         jdbcTemplate.execute("DELETE FROM users");
     }
@@ -104,6 +108,71 @@ public class UserDbStorageTest {
         assertEquals(Optional.empty(), userOptional, "Созданный пользователя должен быть удален");
     }
 
+    // Тест уменьшения счетчиков лайков фильмов при удалении пользователя, чьи лайки удаляются каскадно
+    @Test
+    public void delete_userWithLikes_decrementsLikesCountOfLikedFilms() {
+        jdbcTemplate.execute("DELETE FROM films");
+        User user = userDbStorage.create(createUserTest("user@yandex.ru", "Mult1k", "Дмитрий",
+                LocalDate.of(1995, 2, 13)));
+        User user2 = userDbStorage.create(createUserTest("user@gmail.com", "Login2", "name",
+                LocalDate.of(1995, 4, 24)));
+        jdbcTemplate.update("INSERT INTO films (film_id, name, description, release_date, duration, rating_id, " +
+                "likes_count) VALUES (1, 'Фильм1', 'Описание', '2000-01-01', 100, 1, 2), " +
+                "(2, 'Фильм2', 'Описание', '2000-01-01', 100, 1, 1)");
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (1, ?), (1, ?), (2, ?)",
+                user.getId(), user2.getId(), user2.getId());
+
+        userDbStorage.delete(user2.getId());
+
+        assertEquals(1L, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = 1", Long.class),
+                "Счетчик фильма с id:1 должен уменьшиться на лайк удаленного пользователя");
+        assertEquals(0L, jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = 2", Long.class),
+                "Счетчик фильма с id:2 должен уменьшиться до нуля");
+    }
+
+    // Тест проверки существования пользователей до и после удаления
+    @Test
+    public void existsAndExistsAll_reflectCreateAndDelete() {
+        User user = userDbStorage.create(createUserTest("user@yandex.ru", "Mult1k", "Дмитрий",
+                LocalDate.of(1995, 2, 13)));
+        User user2 = userDbStorage.create(createUserTest("user@gmail.com", "Login2", "name",
+                LocalDate.of(1995, 4, 24)));
+
+        assertTrue(userDbStorage.exists(user.getId()), "Созданный пользователь должен существовать");
+        assertFalse(userDbStorage.exists(Long.MAX_VALUE), "Несуществующий пользователь не должен быть найден");
+        assertTrue(userDbStorage.existsAll(List.of(user.getId(), user2.getId())),
+                "Оба созданных пользователя должны существовать");
+        assertFalse(userDbStorage.existsAll(List.of(user.getId(), Long.MAX_VALUE)),
+                "Проверка должна вернуть false, если хотя бы одного пользователя нет");
+
+        // Удаление сбрасывает закэшированный ответ
+        userDbStorage.delete(user2.getId());
+        assertFalse(userDbStorage.exists(user2.getId()), "Удаленный пользователь не должен существовать");
+        assertFalse(userDbStorage.existsAll(List.of(user.getId(), user2.getId())),
+                "Удаленный пользователь не должен проходить проверку существования");
+    }
+
+    // Тест загрузки друзей сразу для всех пользователей и для страницы пользователей
+    @Test
+    public void findAllAndFindPage_loadFriendIdsForEveryUser() {
+        jdbcTemplate.execute("DELETE FROM friendship");
+        jdbcTemplate.update("INSERT INTO users (user_id, email, login, name, birthday) VALUES " +
+                "(1, 'user1@mail.ru', 'login1', 'Имя1', '1995-02-13'), " +
+                "(2, 'user2@mail.ru', 'login2', 'Имя2', '1995-02-13'), " +
+                "(3, 'user3@mail.ru', 'login3', 'Имя3', '1995-02-13')");
+        jdbcTemplate.update("INSERT INTO friendship (user_id, friend_id) VALUES (1, 2), (1, 3), (2, 3)");
+
+        Map<Long, Set<Long>> friends = new HashMap<>();
+        userDbStorage.findAll().forEach(user -> friends.put(user.getId(), user.getFriends()));
+        assertEquals(Set.of(2L, 3L), friends.get(1L), "Неверные друзья пользователя с id:1");
+        assertEquals(Set.of(3L), friends.get(2L), "Неверные друзья пользователя с id:2");
+        assertTrue(friends.get(3L).isEmpty(), "У пользователя с id:3 не должно быть друзей");
+
+        friendsCache.invalidateAll();
+        List<User> page = userDbStorage.findPage(1L, 2);
+        assertEquals(Set.of(3L), page.get(0).getFriends(), "Неверные друзья пользователя с id:2 на странице");
+    }
+
     // Вспомогательный метод для создания тестового пользователя
     private User createUserTest(
             String email,
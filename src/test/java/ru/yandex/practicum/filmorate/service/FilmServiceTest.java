@@ -1,18 +1,34 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.cache.VersionRegistry;
+import ru.yandex.practicum.filmorate.cache.VersionedResource;
 import ru.yandex.practicum.filmorate.controller.*;
 import ru.yandex.practicum.filmorate.dto.*;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
+import ru.yandex.practicum.filmorate.index.LikesMatrixIndex;
+import ru.yandex.practicum.filmorate.index.PopularityLeaderboard;
+import ru.yandex.practicum.filmorate.index.SimilarFilmsIndex;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.*;
 import ru.yandex.practicum.filmorate.utils.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,6 +45,10 @@ public class FilmServiceTest {
     private UserController userController;
     private UserValidate userValidate;
     private FriendshipTestStorage friendshipTestStorage;
+    private UserFilmController userFilmController;
+    private LikesMatrixIndex likesMatrixIndex;
+    private SimilarFilmsIndex similarFilmsIndex;
+    private VersionRegistry versionRegistry;
 
     @BeforeEach
     public void beforeEach() {
@@ -36,21 +56,38 @@ public class FilmServiceTest {
 
         filmTestStorage = new FilmTestStorage();
         userTestStorage = new UserTestStorage();
+        friendshipTestStorage = new FriendshipTestStorage(userTestStorage);
         filmValidate = new FilmValidate();
         genreTestStorage = new GenreTestStorage();
         mpaTestStorage = new MpaTestStorage();
-        likesTestStorage = new LikesTestStorage();
-
-        filmController = new FilmController(
-                new FilmService(filmTestStorage,
-                        userTestStorage,
-                        filmValidate,
-                        genreTestStorage,
-                        mpaTestStorage,
-                        likesTestStorage)
-        );
-
-        userController = new UserController(new UserService(userTestStorage, userValidate, friendshipTestStorage));
+        likesTestStorage = new LikesTestStorage(filmTestStorage, userTestStorage);
+        likesMatrixIndex = new LikesMatrixIndex(likesTestStorage);
+        PopularityLeaderboard popularityLeaderboard = new PopularityLeaderboard(filmTestStorage, likesTestStorage,
+                likesMatrixIndex);
+        similarFilmsIndex = new SimilarFilmsIndex(likesMatrixIndex);
+        versionRegistry = new VersionRegistry();
+        LikesChangePublisher likesChangePublisher = new LikesChangePublisher(
+                List.of(popularityLeaderboard, likesMatrixIndex, similarFilmsIndex, versionRegistry));
+
+        FilmService filmService = new FilmService(filmTestStorage,
+                userTestStorage,
+                filmValidate,
+                genreTestStorage,
+                mpaTestStorage,
+                likesTestStorage,
+                popularityLeaderboard,
+                new ObjectMapper().findAndRegisterModules(),
+                likesChangePublisher,
+                new LikesWriteBehindQueue(likesTestStorage, likesChangePublisher, false, 500),
+                likesMatrixIndex,
+                similarFilmsIndex,
+                versionRegistry);
+        filmController = new FilmController(filmService);
+        userFilmController = new UserFilmController(filmService);
+
+        userController = new UserController(new UserService(userTestStorage, userValidate, friendshipTestStorage,
+                new ObjectMapper().findAndRegisterModules(), new FriendGraphIndex(friendshipTestStorage),
+                likesChangePublisher, versionRegistry));
     }
 
     // Тест успешного создания фильма с валидными данными
@@ -567,4 +604,351 @@ public class FilmServiceTest {
         assertEquals(createdFilm1.getId(), popularFilms.iterator().next().getId(),
                 "Первый фильм должен быть самым популярным");
     }
-}
\ No newline at end of file
+
+    // Тест порядка популярных фильмов с одинаковым числом лайков и ограничения count
+    @Test
+    public void getPopularFilms_tiesOrderedByFilmIdAndCountValidated() {
+        List<Long> filmIds = createFilms(3);
+        Long userId = createUsers(1).get(0);
+        filmController.addLike(filmIds.get(2), userId);
+
+        assertEquals(List.of(filmIds.get(2), filmIds.get(0), filmIds.get(1)),
+                filmController.getPopularFilms(Integer.MAX_VALUE).stream()
+                        .map(FilmDto::getId)
+                        .toList(),
+                "Фильмы с равным числом лайков должны идти по возрастанию id, count больше числа фильмов допустим");
+        assertThrows(ValidationException.class, () -> filmController.getPopularFilms(0),
+                "Ожидалось ValidationException для неположительного count");
+    }
+
+    // Тест удаления из рейтинга популярности удаленного фильма и лайков удаленного пользователя
+    @Test
+    public void getPopularFilms_afterFilmAndUserDeleted_rankingUpdated() {
+        List<Long> filmIds = createFilms(3);
+        List<Long> userIds = createUsers(2);
+        filmController.addLike(filmIds.get(1), userIds.get(0));
+        filmController.addLike(filmIds.get(1), userIds.get(1));
+        filmController.addLike(filmIds.get(2), userIds.get(1));
+
+        filmController.delete(filmIds.get(2));
+        assertEquals(List.of(filmIds.get(1), filmIds.get(0)), filmController.getPopularFilms(10).stream()
+                .map(FilmDto::getId)
+                .toList(), "Удаленный фильм не должен попадать в популярные");
+
+        userController.delete(userIds.get(0));
+        userController.delete(userIds.get(1));
+        assertEquals(List.of(filmIds.get(0), filmIds.get(1)), filmController.getPopularFilms(10).stream()
+                .map(FilmDto::getId)
+                .toList(), "Лайки удаленных пользователей не должны учитываться в рейтинге");
+    }
+
+    // Тест сверки рейтинга популярности с хранилищем: GET только сообщает о расхождении, POST исправляет его
+    @Test
+    public void checkPopularFilms_driftReportedByCheckAndFixedByRepair() {
+        List<Long> filmIds = createFilms(2);
+        Long userId = createUsers(1).get(0);
+        assertEquals(0, filmController.checkPopularFilms().getMismatches(),
+                "Без изменений в обход сервиса расхождений быть не должно");
+
+        // Лайк, записанный напрямую в хранилище, рейтинг в памяти не видит
+        likesTestStorage.addLikeToFilm(filmIds.get(1), userId);
+        PopularityCheckResult check = filmController.checkPopularFilms();
+        assertEquals(1, check.getMismatches(), "Должно найтись одно расхождение");
+        assertFalse(check.isRepaired(), "Сверка не должна менять рейтинг");
+        assertEquals(filmIds.get(0), filmController.getPopularFilms(1).iterator().next().getId(),
+                "После сверки рейтинг не должен измениться");
+
+        PopularityCheckResult repair = filmController.repairPopularFilms();
+        assertEquals(1, repair.getMismatches(), "Должно найтись одно расхождение");
+        assertTrue(repair.isRepaired(), "Расхождение должно быть исправлено");
+        assertEquals(filmIds.get(1), filmController.getPopularFilms(1).iterator().next().getId(),
+                "После исправления фильм с лайком должен быть первым");
+        assertEquals(0, filmController.checkPopularFilms().getMismatches(),
+                "После исправления расхождений быть не должно");
+    }
+
+    // Тест сверки во время лайка: лайк уже в хранилище, а событие о нем приходит в рейтинг после первого чтения.
+    // Такой лайк не считается расхождением и не учитывается в рейтинге дважды
+    @Test
+    public void checkConsistency_likeStoredBeforeEventArrives_notCountedAsDrift() {
+        Long filmId = createFilms(1).get(0);
+        Long userId = createUsers(1).get(0);
+        List<Runnable> afterCount = new ArrayList<>();
+        LikesTestStorage storage = new LikesTestStorage(filmTestStorage, userTestStorage) {
+            @Override
+            public Map<Long, Long> countLikesByFilm() {
+                Map<Long, Long> counts = super.countLikesByFilm();
+                afterCount.forEach(Runnable::run);
+                afterCount.clear();
+                return counts;
+            }
+        };
+        PopularityLeaderboard leaderboard = new PopularityLeaderboard(filmTestStorage, storage,
+                new LikesMatrixIndex(storage));
+        leaderboard.init();
+
+        storage.addLikeToFilm(filmId, userId);
+        afterCount.add(() -> leaderboard.likeAdded(filmId, userId));
+
+        assertEquals(0, leaderboard.checkConsistency(true), "Лайк в пути не должен считаться расхождением");
+        assertEquals(0, leaderboard.checkConsistency(false), "Лайк должен быть учтен в рейтинге ровно один раз");
+    }
+
+    // Тест потоковой выгрузки: по одному фильму со всеми полями в каждой строке NDJSON
+    @Test
+    public void exportAll_writesOneJsonLinePerFilm() throws IOException {
+        List<Long> filmIds = createFilms(2);
+        Long userId = createUsers(1).get(0);
+        filmController.addLike(filmIds.get(0), userId);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        filmController.exportAll().getBody().writeTo(out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+
+        assertEquals(2, lines.length, "Каждый фильм должен быть записан отдельной строкой");
+        ObjectMapper mapper = new ObjectMapper();
+        Map<Long, JsonNode> exported = new HashMap<>();
+        for (String line : lines) {
+            JsonNode film = mapper.readTree(line);
+            exported.put(film.get("id").asLong(), film);
+        }
+        assertEquals(Set.copyOf(filmIds), exported.keySet(), "Должны быть выгружены все фильмы");
+        assertEquals("Фильм 1", exported.get(filmIds.get(0)).get("name").asText(), "Название должно выгружаться");
+        assertFalse(exported.get(filmIds.get(0)).has("likesByUsers"), "Список лайков не должен выгружаться");
+        assertEquals(1, exported.get(filmIds.get(0)).get("likesCount").asLong(),
+                "Должно выгружаться количество лайков фильма");
+        assertEquals(0, exported.get(filmIds.get(1)).get("likesCount").asLong(),
+                "У фильма без лайков количество лайков должно быть 0");
+    }
+
+    // Тест пакетной загрузки фильмов: корректные строки сохраняются, по ошибочным возвращается причина
+    @Test
+    public void createBulk_validAndInvalidLines_reportsResultPerLine() throws IOException {
+        String ndjson = "{\"name\":\"Фильм 1\",\"description\":\"Описание\",\"releaseDate\":\"2000-01-01\"," +
+                "\"duration\":100,\"mpa\":{\"id\":1},\"genres\":[{\"id\":1}]}\n" +
+                "{\"name\":\"\",\"releaseDate\":\"2000-01-01\",\"duration\":100,\"mpa\":{\"id\":1}}\n" +
+                "не json\n" +
+                "{\"name\":\"Фильм 2\",\"releaseDate\":\"2000-01-01\",\"duration\":90,\"mpa\":{\"id\":99}}\n";
+
+        BulkImportResult result = filmController.createBulk(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(4, result.getTotal(), "Должно быть обработано 4 строки");
+        assertEquals(1, result.getCreated(), "Должен быть добавлен 1 фильм");
+        assertEquals(3, result.getFailed(), "Должно быть 3 ошибочные строки");
+        assertEquals(List.of(2L, 3L, 4L), result.getFailedItems().stream()
+                .map(BulkItemResult::getLine)
+                .toList(), "Ошибки должны возвращаться только по ошибочным строкам");
+        assertEquals(1, filmController.findAll().size(), "В хранилище должен быть 1 фильм");
+        assertEquals(List.of(new BulkItemResult(1, filmController.findAll().iterator().next().getId(), null)),
+                result.getCreatedItems(), "Для сохраненной строки должен возвращаться id созданного фильма");
+    }
+
+    // Тест пакетной загрузки фильмов, когда хранилище отклоняет пакет: фильмы сохраняются по одному,
+    // ошибкой отмечается только строка, которую сохранить нельзя
+    @Test
+    public void createBulk_batchRejectedByStorage_onlyFailingLineReported() throws IOException {
+        String ndjson = "{\"name\":\"Фильм 1\",\"releaseDate\":\"2000-01-01\",\"duration\":100,\"mpa\":{\"id\":1}}\n" +
+                "{\"name\":\"Фильм 2\",\"releaseDate\":\"2000-01-01\",\"duration\":100,\"mpa\":{\"id\":1}}\n" +
+                "{\"name\":\"Фильм 1\",\"releaseDate\":\"2000-01-01\",\"duration\":100,\"mpa\":{\"id\":1}}\n" +
+                "{\"name\":\"" + "a".repeat(FilmValidate.MAX_NAME_LENGTH + 1) + "\",\"releaseDate\":\"2000-01-01\"," +
+                "\"duration\":100,\"mpa\":{\"id\":1}}\n";
+
+        BulkImportResult result = filmController.createBulk(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(4, result.getTotal(), "Должно быть обработано 4 строки");
+        assertEquals(2, result.getCreated(), "Должно быть добавлено 2 фильма");
+        assertEquals(List.of(new BulkItemResult(3, null, "Фильм с таким названием уже существует"),
+                        new BulkItemResult(4, null, "Недопустимая длина названия")),
+                result.getFailedItems(), "Ошибками должны быть отмечены только 3-я и 4-я строки");
+        assertEquals(2, filmController.findAll().size(), "В хранилище должно быть 2 фильма");
+        assertEquals(List.of(1L, 2L), result.getCreatedItems().stream()
+                .map(BulkItemResult::getLine)
+                .toList(), "Сохраненные после ошибки пакета строки должны возвращаться по порядку");
+        assertEquals(Set.copyOf(filmController.findAll().stream()
+                        .map(FilmDto::getId)
+                        .toList()),
+                Set.copyOf(result.getCreatedItems().stream()
+                        .map(BulkItemResult::getId)
+                        .toList()), "Для каждой сохраненной строки должен возвращаться id фильма");
+    }
+
+    // Тест рекомендаций фильмов по лайкам пользователей с похожими вкусами
+    @Test
+    public void getRecommendations_rankedByNeighbourOverlap() {
+        List<Long> filmIds = createFilms(4);
+        List<Long> userIds = createUsers(3);
+
+        // Первый пользователь лайкнул фильмы 1 и 2, второй - 1, 2 и 3, третий - 1 и 4
+        filmController.addLike(filmIds.get(0), userIds.get(0));
+        filmController.addLike(filmIds.get(1), userIds.get(0));
+        filmController.addLike(filmIds.get(0), userIds.get(1));
+        filmController.addLike(filmIds.get(1), userIds.get(1));
+        filmController.addLike(filmIds.get(2), userIds.get(1));
+        filmController.addLike(filmIds.get(0), userIds.get(2));
+        filmController.addLike(filmIds.get(3), userIds.get(2));
+
+        List<Long> recommended = userFilmController.getRecommendations(userIds.get(0), 10).stream()
+                .map(FilmDto::getId)
+                .toList();
+        assertEquals(List.of(filmIds.get(2), filmIds.get(3)), recommended,
+                "Первым должен идти фильм самого похожего пользователя, уже лайкнутые фильмы не рекомендуются");
+
+        // Матрица, построенная заново по хранилищу, должна давать тот же результат
+        likesMatrixIndex.rebuild();
+        assertEquals(recommended, userFilmController.getRecommendations(userIds.get(0), 10).stream()
+                .map(FilmDto::getId)
+                .toList(), "Перестроенная матрица должна давать те же рекомендации");
+
+        // Удаленный фильм пропадает из рекомендаций
+        filmController.delete(filmIds.get(2));
+        assertEquals(List.of(filmIds.get(3)), userFilmController.getRecommendations(userIds.get(0), 10).stream()
+                .map(FilmDto::getId)
+                .toList(), "Удаленный фильм не должен рекомендоваться");
+    }
+
+    // Тест похожих фильмов: порядок по коэффициенту Жаккара и пересчет после изменения лайков
+    @Test
+    public void getSimilarFilms_rankedByJaccardAndRefreshedAfterLikeChanges() {
+        List<Long> filmIds = createFilms(3);
+        List<Long> userIds = createUsers(3);
+
+        // Фильм 2 лайкнули двое из трех поклонников фильма 1, фильм 3 - один
+        filmController.addLike(filmIds.get(0), userIds.get(0));
+        filmController.addLike(filmIds.get(0), userIds.get(1));
+        filmController.addLike(filmIds.get(0), userIds.get(2));
+        filmController.addLike(filmIds.get(1), userIds.get(0));
+        filmController.addLike(filmIds.get(1), userIds.get(1));
+        filmController.addLike(filmIds.get(2), userIds.get(2));
+        similarFilmsIndex.refreshDirty();
+
+        assertEquals(List.of(filmIds.get(1), filmIds.get(2)), filmController.getSimilarFilms(filmIds.get(0), 10)
+                .stream()
+                .map(FilmDto::getId)
+                .toList(), "Фильмы должны быть упорядочены по убыванию сходства");
+        assertEquals(1, filmController.getSimilarFilms(filmIds.get(0), 1).size(),
+                "Количество похожих фильмов должно ограничиваться limit");
+
+        // После удаления лайков у фильма 2 не остается общих зрителей с фильмом 1
+        filmController.removeLike(filmIds.get(1), userIds.get(0));
+        filmController.removeLike(filmIds.get(1), userIds.get(1));
+        similarFilmsIndex.refreshDirty();
+
+        assertEquals(List.of(filmIds.get(2)), filmController.getSimilarFilms(filmIds.get(0), 10).stream()
+                .map(FilmDto::getId)
+                .toList(), "Похожие фильмы должны пересчитываться после изменения лайков");
+    }
+
+    // Тест ленты пользователя: фильмы, лайкнутые друзьями, по убыванию числа таких друзей
+    @Test
+    public void getFeed_returnsFilmsLikedByFriends() {
+        List<Long> filmIds = createFilms(3);
+        List<Long> userIds = createUsers(3);
+        userController.addFriend(userIds.get(0), userIds.get(1));
+        userController.addFriend(userIds.get(0), userIds.get(2));
+
+        filmController.addLike(filmIds.get(1), userIds.get(1));
+        filmController.addLike(filmIds.get(1), userIds.get(2));
+        filmController.addLike(filmIds.get(0), userIds.get(2));
+        filmController.addLike(filmIds.get(2), userIds.get(0));
+
+        assertEquals(List.of(filmIds.get(1), filmIds.get(0)), userFilmController.getFeed(userIds.get(0), 10).stream()
+                .map(FilmDto::getId)
+                .toList(), "В ленте должны быть только фильмы друзей, по убыванию числа лайкнувших друзей");
+        assertThrows(NotFoundException.class, () -> userFilmController.getFeed(999L, 10),
+                "Ожидалось NotFoundException для ленты несуществующего пользователя");
+    }
+
+    // Тест постраничного получения лайкнутых пользователем фильмов по курсору
+    @Test
+    public void getLikedFilms_pagesThroughUserLikes() {
+        List<Long> filmIds = createFilms(3);
+        List<Long> userIds = createUsers(2);
+        filmIds.forEach(filmId -> filmController.addLike(filmId, userIds.get(0)));
+        filmController.addLike(filmIds.get(0), userIds.get(1));
+
+        PageDto<FilmDto> firstPage = userFilmController.getLikedFilms(userIds.get(0), 2, null);
+        assertEquals(List.of(filmIds.get(0), filmIds.get(1)), firstPage.getItems().stream()
+                .map(FilmDto::getId)
+                .toList(), "Первая страница должна содержать первые 2 фильма");
+        assertNotNull(firstPage.getNextCursor(), "После неполного списка должен быть курсор");
+
+        PageDto<FilmDto> secondPage = userFilmController.getLikedFilms(userIds.get(0), 2, firstPage.getNextCursor());
+        assertEquals(List.of(filmIds.get(2)), secondPage.getItems().stream()
+                .map(FilmDto::getId)
+                .toList(), "Вторая страница должна содержать оставшийся фильм");
+        assertNull(secondPage.getNextCursor(), "На последней странице курсора быть не должно");
+    }
+
+    // Тест смены ETag фильма и рейтинга популярности после изменений
+    @Test
+    public void etag_changesAfterFilmUpdateAndLikes() {
+        Long filmId = createFilms(1).get(0);
+        Long otherFilmId = createFilms(1).get(0);
+        Long userId = createUsers(1).get(0);
+
+        String filmEtag = versionRegistry.etag(VersionedResource.FILM, filmId);
+        String otherFilmEtag = versionRegistry.etag(VersionedResource.FILM, otherFilmId);
+        String popularEtag = versionRegistry.etag(VersionedResource.POPULAR_FILMS, null);
+        assertEquals(filmEtag, versionRegistry.etag(VersionedResource.FILM, filmId),
+                "Без изменений ETag не должен меняться");
+
+        filmController.addLike(filmId, userId);
+        String likedEtag = versionRegistry.etag(VersionedResource.FILM, filmId);
+        assertNotEquals(filmEtag, likedEtag, "После лайка ETag фильма должен измениться");
+        assertNotEquals(popularEtag, versionRegistry.etag(VersionedResource.POPULAR_FILMS, null),
+                "После лайка ETag рейтинга популярности должен измениться");
+        assertEquals(otherFilmEtag, versionRegistry.etag(VersionedResource.FILM, otherFilmId),
+                "ETag другого фильма не должен меняться");
+
+        UpdateFilmRequest update = new UpdateFilmRequest();
+        update.setId(filmId);
+        update.setName("Новое название");
+        update.setDescription("Описание");
+        update.setReleaseDate(LocalDate.of(2000, 1, 1));
+        update.setDuration(100);
+        Mpa mpa = new Mpa();
+        mpa.setId(1L);
+        update.setMpa(mpa);
+        filmController.update(update);
+        String updatedEtag = versionRegistry.etag(VersionedResource.FILM, filmId);
+        assertNotEquals(likedEtag, updatedEtag, "После обновления ETag фильма должен измениться");
+
+        // После удаления версия фильма забывается, но ETag не должен совпасть ни с одним выданным ранее
+        filmController.delete(filmId);
+        String deletedEtag = versionRegistry.etag(VersionedResource.FILM, filmId);
+        assertNotEquals(filmEtag, deletedEtag, "ETag удаленного фильма не должен совпадать с исходным");
+        assertNotEquals(updatedEtag, deletedEtag, "После удаления ETag фильма должен измениться");
+    }
+
+    // Вспомогательный метод для создания нескольких фильмов, возвращает их id
+    private List<Long> createFilms(int count) {
+        List<Long> filmIds = new ArrayList<>();
+        for (int idx = 1; idx <= count; idx++) {
+            NewFilmRequest film = new NewFilmRequest();
+            film.setName("Фильм " + idx);
+            film.setDescription("Описание");
+            film.setReleaseDate(LocalDate.of(2000, 1, idx));
+            film.setDuration(100);
+            Mpa mpa = new Mpa();
+            mpa.setId(1L);
+            film.setMpa(mpa);
+            filmIds.add(filmController.create(film).getId());
+        }
+        return filmIds;
+    }
+
+    // Вспомогательный метод для создания нескольких пользователей, возвращает их id
+    private List<Long> createUsers(int count) {
+        List<Long> userIds = new ArrayList<>();
+        for (int idx = 1; idx <= count; idx++) {
+            NewUserRequest user = new NewUserRequest();
+            user.setEmail("user" + idx + "@mail.ru");
+            user.setLogin("login" + idx);
+            user.setBirthday(LocalDate.of(1995, 2, 13));
+            userIds.add(userController.create(user).getId());
+        }
+        return userIds;
+    }
+}
@@ -0,0 +1,158 @@
+package ru.yandex.practicum.filmorate.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import ru.yandex.practicum.filmorate.dto.LikesQueueStats;
+import ru.yandex.practicum.filmorate.index.LikesChangeListener;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
+import ru.yandex.practicum.filmorate.model.Likes;
+import ru.yandex.practicum.filmorate.storage.FilmTestStorage;
+import ru.yandex.practicum.filmorate.storage.LikesTestStorage;
+import ru.yandex.practicum.filmorate.storage.UserTestStorage;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LikesWriteBehindQueueTest {
+
+    private static final int FLUSH_SIZE = 3;
+
+    private RecordingLikesStorage likesStorage;
+    private List<String> events;
+    private LikesWriteBehindQueue queue;
+
+    @BeforeEach
+    public void beforeEach() {
+        likesStorage = new RecordingLikesStorage();
+        events = new ArrayList<>();
+        LikesChangeListener listener = new LikesChangeListener() {
+            @Override
+            public void likeAdded(Long filmId, Long userId) {
+                events.add("+" + filmId + ":" + userId);
+            }
+
+            @Override
+            public void likeRemoved(Long filmId, Long userId) {
+                events.add("-" + filmId + ":" + userId);
+            }
+        };
+        queue = new LikesWriteBehindQueue(likesStorage, new LikesChangePublisher(List.of(listener)), true, FLUSH_SIZE);
+    }
+
+    // Тест схлопывания лайка и его отмены для одной пары: в БД пишется только последнее действие
+    @Test
+    public void flush_likeAndUnlikeOfSamePair_coalescedToLastAction() {
+        queue.enqueue(1L, 1L, true);
+        queue.enqueue(1L, 1L, false);
+        queue.enqueue(1L, 1L, true);
+        queue.enqueue(2L, 1L, false);
+        assertEquals(2, queue.getStats().getQueueDepth(), "Повторные действия одной пары должны схлопываться");
+
+        queue.flush();
+
+        assertEquals(List.of(List.of(like(1L, 1L))), likesStorage.addBatches, "Должен записаться один лайк");
+        assertEquals(List.of(List.of(like(2L, 1L))), likesStorage.removeBatches,
+                "Должна записаться одна отмена лайка");
+        assertEquals(List.of("+1:1", "-2:1"), events, "Индексы должны получить оба изменения");
+    }
+
+    // Тест сброса очереди запросом, который довел ее размер до flush-size, без участия таймера
+    @Test
+    public void enqueue_reachingFlushSize_flushesBatch() {
+        queue.enqueue(1L, 1L, true);
+        queue.enqueue(2L, 1L, true);
+        assertTrue(likesStorage.addBatches.isEmpty(), "До порога очередь не должна сбрасываться");
+
+        queue.enqueue(3L, 1L, true);
+
+        assertEquals(List.of(List.of(like(1L, 1L), like(2L, 1L), like(3L, 1L))), likesStorage.addBatches,
+                "При достижении порога лайки должны записаться одним пакетом в порядке id");
+        assertEquals(0, queue.getStats().getQueueDepth(), "После сброса очередь должна быть пустой");
+    }
+
+    // Тест сброса очереди по таймеру и при остановке приложения
+    @Test
+    public void scheduledFlushAndShutdown_writePendingChanges() {
+        queue.enqueue(1L, 1L, true);
+        queue.scheduledFlush();
+        assertEquals(List.of("+1:1"), events, "Таймер должен сбросить очередь");
+
+        queue.enqueue(2L, 1L, true);
+        queue.shutdown();
+        assertEquals(List.of("+1:1", "+2:1"), events, "При остановке очередь должна сбрасываться");
+        assertEquals(0, queue.getStats().getQueueDepth(), "После остановки очередь должна быть пустой");
+    }
+
+    // Тест записи по одной паре после ошибки пакета: отбрасывается только ошибочная пара
+    @Test
+    public void flush_batchFailure_retriesOneByOneAndDropsOnlyFailedPair() {
+        likesStorage.failingFilmIds.add(2L);
+        queue.enqueue(1L, 1L, true);
+        queue.enqueue(2L, 1L, true);
+        queue.enqueue(3L, 1L, true);
+
+        assertEquals(List.of("+1:1", "+3:1"), events, "Корректные лайки должны записаться после ошибки пакета");
+        LikesQueueStats stats = queue.getStats();
+        assertEquals(2, stats.getAppliedChanges(), "Должно быть записано 2 изменения");
+        assertEquals(1, stats.getDroppedChanges(), "Должно быть отброшено 1 изменение");
+    }
+
+    // Тест метрик очереди
+    @Test
+    public void getStats_reportsDepthFlushesAndAppliedChanges() {
+        queue.enqueue(1L, 1L, true);
+        LikesQueueStats stats = queue.getStats();
+        assertTrue(stats.isEnabled(), "Очередь должна быть включена");
+        assertEquals(1, stats.getQueueDepth(), "В очереди должно быть 1 изменение");
+        assertEquals(0, stats.getFlushes(), "Сбросов еще не было");
+
+        queue.flush();
+        queue.flush();
+
+        stats = queue.getStats();
+        assertEquals(0, stats.getQueueDepth(), "Очередь должна быть пустой");
+        assertEquals(1, stats.getFlushes(), "Сброс пустой очереди не должен учитываться");
+        assertEquals(1, stats.getAppliedChanges(), "Должно быть записано 1 изменение");
+        assertEquals(0, stats.getDroppedChanges(), "Отброшенных изменений быть не должно");
+    }
+
+    // Вспомогательный метод для создания пары (фильм, пользователь)
+    private static Likes like(Long filmId, Long userId) {
+        Likes like = new Likes();
+        like.setFilmId(filmId);
+        like.setUserId(userId);
+        return like;
+    }
+
+    // Хранилище-заглушка: запоминает пакеты и, как БД с внешними ключами, отклоняет пакет с удаленным фильмом
+    private static class RecordingLikesStorage extends LikesTestStorage {
+
+        private final List<List<Likes>> addBatches = new ArrayList<>();
+        private final List<List<Likes>> removeBatches = new ArrayList<>();
+        private final Set<Long> failingFilmIds = new HashSet<>();
+
+        RecordingLikesStorage() {
+            super(new FilmTestStorage(), new UserTestStorage());
+        }
+
+        @Override
+        public List<Likes> addLikesBatch(Collection<Likes> likes) {
+            return save(addBatches, likes);
+        }
+
+        @Override
+        public List<Likes> removeLikesBatch(Collection<Likes> likes) {
+            return save(removeBatches, likes);
+        }
+
+        private List<Likes> save(List<List<Likes>> batches, Collection<Likes> likes) {
+            if (likes.stream().anyMatch(like -> failingFilmIds.contains(like.getFilmId()))) {
+                throw new DataIntegrityViolationException("Фильм не найден");
+            }
+            batches.add(List.copyOf(likes));
+            return List.copyOf(likes);
+        }
+    }
+}
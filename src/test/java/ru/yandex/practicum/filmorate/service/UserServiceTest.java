@@ -1,18 +1,27 @@
 package ru.yandex.practicum.filmorate.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import ru.yandex.practicum.filmorate.cache.VersionRegistry;
 import ru.yandex.practicum.filmorate.controller.UserController;
 import ru.yandex.practicum.filmorate.dto.*;
 import ru.yandex.practicum.filmorate.exception.*;
+import ru.yandex.practicum.filmorate.index.FriendGraphIndex;
+import ru.yandex.practicum.filmorate.index.LikesChangePublisher;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.storage.FriendshipTestStorage;
 import ru.yandex.practicum.filmorate.storage.UserTestStorage;
 import ru.yandex.practicum.filmorate.utils.UserValidate;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +34,7 @@ public class UserServiceTest {
     private UserTestStorage userTestStorage;
     private UserValidate userValidate;
     private FriendshipTestStorage friendshipTestStorage;
+    private FriendGraphIndex friendGraphIndex;
 
     @BeforeEach
     public void beforeEach() {
@@ -32,9 +42,13 @@ public class UserServiceTest {
 
         userTestStorage = new UserTestStorage();
         userValidate = new UserValidate();
-        friendshipTestStorage = new FriendshipTestStorage();
+        friendshipTestStorage = new FriendshipTestStorage(userTestStorage);
 
-        userController = new UserController(new UserService(userTestStorage, userValidate, friendshipTestStorage));
+        friendGraphIndex = new FriendGraphIndex(friendshipTestStorage);
+
+        userController = new UserController(new UserService(userTestStorage, userValidate, friendshipTestStorage,
+                new ObjectMapper().findAndRegisterModules(), friendGraphIndex, new LikesChangePublisher(List.of()),
+                new VersionRegistry()));
     }
 
     // Тест успешного создания пользователя с валидными данными
@@ -232,6 +246,28 @@ public class UserServiceTest {
                 "Логин 2-го пользователя должен быть login2");
     }
 
+    // Тест постраничного получения пользователей по курсору
+    @Test
+    public void findPage_threeUsersPageOfTwo_returnsCursorToSecondPage() {
+        for (int i = 1; i <= 3; i++) {
+            NewUserRequest user = new NewUserRequest();
+            user.setEmail("user" + i + "@mail.ru");
+            user.setLogin("login" + i);
+            user.setBirthday(LocalDate.of(1995, 2, 13));
+            userController.create(user);
+        }
+
+        PageDto<UserDto> firstPage = userController.findPage(2, null);
+        assertEquals(2, firstPage.getItems().size(), "На первой странице должно быть 2 пользователя");
+        assertNotNull(firstPage.getNextCursor(), "Должен быть курсор на следующую страницу");
+
+        PageDto<UserDto> secondPage = userController.findPage(2, firstPage.getNextCursor());
+        assertEquals(1, secondPage.getItems().size(), "На второй странице должен быть 1 пользователь");
+        assertEquals("login3", secondPage.getItems().get(0).getLogin(),
+                "На второй странице должен быть третий пользователь");
+        assertNull(secondPage.getNextCursor(), "Курсора на следующую страницу быть не должно");
+    }
+
     // Тест проверяет невозможность добавить пользователя равного null
     @Test
     public void create_nullUser_throwsValidationException() {
@@ -475,4 +511,96 @@ public class UserServiceTest {
         assertTrue(commonFriends.stream().anyMatch(f -> f.getId().equals(commonFriend.getId())),
                 "Общий друг должен быть в списке");
     }
-}
\ No newline at end of file
+
+    // Тест рекомендаций друзей: кандидаты упорядочены по количеству общих друзей и обновляются вместе с дружбой
+    @Test
+    public void getFriendSuggestions_rankedByMutualFriends() {
+        List<Long> ids = new ArrayList<>();
+        for (int idx = 1; idx <= 5; idx++) {
+            NewUserRequest request = new NewUserRequest();
+            request.setEmail("user" + idx + "@mail.ru");
+            request.setLogin("login" + idx);
+            request.setBirthday(LocalDate.of(1995, 2, 13));
+            ids.add(userController.create(request).getId());
+        }
+        Long user = ids.get(0);
+        Long friend = ids.get(1);
+        Long friend2 = ids.get(2);
+        Long candidate = ids.get(3);
+        Long candidate2 = ids.get(4);
+
+        userController.addFriend(user, friend);
+        userController.addFriend(user, friend2);
+        userController.addFriend(candidate, friend);
+        userController.addFriend(candidate, friend2);
+        userController.addFriend(candidate2, friend2);
+
+        List<FriendSuggestionDto> suggestions = List.copyOf(userController.getFriendSuggestions(user, 10));
+        assertEquals(List.of(new FriendSuggestionDto(candidate, 2), new FriendSuggestionDto(candidate2, 1)),
+                suggestions, "Кандидаты должны быть упорядочены по убыванию количества общих друзей");
+        assertEquals(1, userController.getFriendSuggestions(user, 1).size(),
+                "Количество рекомендаций должно ограничиваться limit");
+
+        // Граф, построенный заново по хранилищу, должен давать тот же результат
+        friendGraphIndex.rebuild();
+        assertEquals(suggestions, List.copyOf(userController.getFriendSuggestions(user, 10)),
+                "Перестроенный граф должен давать те же рекомендации");
+
+        // После удаления дружбы у кандидатов по одному общему другу, порядок - по id
+        userController.removeFriend(candidate, friend);
+        assertEquals(List.of(new FriendSuggestionDto(candidate, 1), new FriendSuggestionDto(candidate2, 1)),
+                List.copyOf(userController.getFriendSuggestions(user, 10)),
+                "Рекомендации должны учитывать удаление дружбы");
+
+        // Друзья пользователя в рекомендации не попадают
+        userController.addFriend(user, candidate);
+        assertEquals(List.of(new FriendSuggestionDto(candidate2, 1)),
+                List.copyOf(userController.getFriendSuggestions(user, 10)),
+                "Пользователь, уже добавленный в друзья, не должен рекомендоваться");
+    }
+
+    // Тест пакетной загрузки пользователей из CSV: заголовок пропускается, по ошибочным строкам возвращается причина
+    @Test
+    public void createBulkFromCsv_validAndInvalidRows_reportsResultPerRow() throws IOException {
+        String csv = "email,login,name,birthday\n" +
+                "user1@mail.ru,login1,Имя,1995-02-13\n" +
+                "user2@mail.ru,bad login,,1995-02-13\n" +
+                "user3@mail.ru,login3,,не дата\n" +
+                "user4@mail.ru,login4,,2000-01-01\n";
+
+        BulkImportResult result = userController.createBulkFromCsv(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(4, result.getTotal(), "Должно быть обработано 4 строки без заголовка");
+        assertEquals(2, result.getCreated(), "Должно быть добавлено 2 пользователя");
+        assertEquals(2, result.getFailed(), "Должно быть 2 ошибочные строки");
+        assertEquals(List.of(3L, 4L), result.getFailedItems().stream()
+                .map(BulkItemResult::getLine)
+                .toList(), "Ошибки должны указывать на 3-ю и 4-ю строки файла");
+        assertEquals("login4", userController.findAll().stream()
+                .filter(user -> user.getEmail().equals("user4@mail.ru"))
+                .findFirst()
+                .orElseThrow()
+                .getName(), "Пустое имя должно заменяться логином");
+    }
+
+    // Тест пакетной загрузки пользователей, когда хранилище отклоняет пакет: пользователи сохраняются по одному,
+    // ошибкой отмечается только строка, которую сохранить нельзя
+    @Test
+    public void createBulkFromCsv_batchRejectedByStorage_onlyFailingRowReported() throws IOException {
+        String csv = "email,login,name,birthday\n" +
+                "user1@mail.ru,login1,Имя,1995-02-13\n" +
+                "user2@mail.ru,login2,Имя,1995-02-13\n" +
+                "user1@mail.ru,login3,Имя,1995-02-13\n";
+
+        BulkImportResult result = userController.createBulkFromCsv(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(3, result.getTotal(), "Должно быть обработано 3 строки без заголовка");
+        assertEquals(2, result.getCreated(), "Должно быть добавлено 2 пользователя");
+        assertEquals(List.of(new BulkItemResult(4, null, "Email уже используется")), result.getFailedItems(),
+                "Ошибкой должна быть отмечена только 4-я строка файла");
+        assertTrue(result.getCreatedItems().isEmpty(), "Загрузка пользователей возвращает только ошибочные строки");
+        assertEquals(2, userController.findAll().size(), "В хранилище должно быть 2 пользователя");
+    }
+}
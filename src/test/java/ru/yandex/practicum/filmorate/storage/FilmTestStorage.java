@@ -5,8 +5,10 @@ import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.exception.*;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static ru.yandex.practicum.filmorate.utils.ControllersUtils.getNextId;
@@ -34,6 +36,20 @@ public class FilmTestStorage implements FilmStorage {
         return film;
     }
 
+    // Пакетное создание фильмов. Как и транзакция в БД, пакет сохраняется целиком или не сохраняется вовсе
+    @Override
+    public List<Film> createBatch(List<Film> films) {
+        Set<String> batchNames = new HashSet<>();
+        films.forEach(film -> {
+            checkFilmNamesUniqueness(film.getName());
+            if (!batchNames.add(film.getName().toLowerCase())) {
+                throw new DuplicateException("Фильм с таким названием уже существует");
+            }
+        });
+        films.forEach(this::create);
+        return films;
+    }
+
     // Удаление фильма по id
     @Override
     public void delete(Long id) {
@@ -62,29 +78,89 @@ public class FilmTestStorage implements FilmStorage {
         return film;
     }
 
+    // Проверка существования фильма
+    @Override
+    public boolean exists(Long id) {
+        return films.containsKey(id);
+    }
+
+    // Проверка существования всех фильмов из списка
+    @Override
+    public boolean existsAll(Collection<Long> ids) {
+        return films.keySet().containsAll(ids);
+    }
+
     // Получение фильма по id
     @Override
-    public Optional<Film> findById(Long id) {
+    public Optional<Film> findById(Long id, Set<FilmField> fields) {
         validateFilmId(id);
         return Optional.ofNullable(films.get(id));
     }
 
     // Получение всех фильмов
     @Override
-    public Collection<Film> findAll() {
+    public Collection<Film> findAll(Set<FilmField> fields) {
         return films.values();
     }
 
-    // Получения списка популярных фильмов
+    // Получение фильмов по набору id
+    @Override
+    public Collection<Film> findByIds(Collection<Long> filmIds, Set<FilmField> fields) {
+        return filmIds.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // Получение страницы фильмов с id больше afterId
     @Override
-    public Collection<Film> findPopularFilms(int count) {
+    public List<Film> findPage(long afterId, int limit, Set<FilmField> fields) {
         return films.values().stream()
-                .sorted((f1, f2) -> Integer.compare(f2.getLikesByUsers().size(),
-                        f1.getLikesByUsers().size()))
-                .limit(count)
+                .filter(film -> film.getId() > afterId)
+                .sorted(Comparator.comparing(Film::getId))
+                .limit(limit)
                 .collect(Collectors.toList());
     }
 
+    // Выгрузка всех фильмов. Как и в БД: по возрастанию id, без списка лайков, только с их количеством
+    @Override
+    public void exportAll(Consumer<Film> consumer) {
+        films.values().stream()
+                .sorted(Comparator.comparing(Film::getId))
+                .map(film -> {
+                    Film exported = new Film();
+                    exported.setId(film.getId());
+                    exported.setName(film.getName());
+                    exported.setDescription(film.getDescription());
+                    exported.setReleaseDate(film.getReleaseDate());
+                    exported.setDuration(film.getDuration());
+                    exported.setMpa(film.getMpa());
+                    exported.setLikesCount((long) film.getLikesByUsers().size());
+                    exported.setGenres(film.getGenres());
+                    return exported;
+                })
+                .forEach(consumer);
+    }
+
+    // Получение счетчиков лайков всех фильмов
+    @Override
+    public Map<Long, Long> findLikesCounts() {
+        Map<Long, Long> counts = new HashMap<>();
+        films.values().forEach(film -> counts.put(film.getId(), (long) film.getLikesByUsers().size()));
+        return counts;
+    }
+
+    // Отдельного счетчика в тестовом хранилище нет: количество лайков берется из самих лайков и всегда точно
+    @Override
+    public List<Long> findLikesCountMismatches() {
+        return List.of();
+    }
+
+    // Пересчет не нужен по той же причине
+    @Override
+    public void recountLikes(Collection<Long> filmIds) {
+    }
+
     // Вспомогательный метод для проверки на наличие дубликата названия фильма
     private void checkFilmNamesUniqueness(String name) {
         if (filmNames.contains(name.toLowerCase())) {
@@ -3,9 +3,11 @@ package ru.yandex.practicum.filmorate.storage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.model.Friendship;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Утилитарный класс - тестовое хранилище Friendship
@@ -17,25 +19,33 @@ import java.util.*;
 public class FriendshipTestStorage implements FriendshipStorage {
 
     private final Map<Long, Set<Long>> friendships = new HashMap<>();
-    private UserTestStorage userTestStorage;
+    private final UserTestStorage userTestStorage;
+
+    public FriendshipTestStorage(UserTestStorage userTestStorage) {
+        this.userTestStorage = userTestStorage;
+    }
 
     @Override
-    public void addFriend(Long userId, Long friendId) {
-        if (!friendships.containsKey(userId)) {
-            friendships.put(userId, new HashSet<>());
+    public boolean addFriend(Long userId, Long friendId) {
+        if (!friendships.computeIfAbsent(userId, id -> new HashSet<>()).add(friendId)) {
+            return false;
         }
-        friendships.get(userId).add(friendId);
+        // Список друзей хранится и в самом пользователе, как его возвращает UserDbStorage
+        userTestStorage.findById(userId).ifPresent(user -> user.getFriends().add(friendId));
+        return true;
     }
 
     @Override
-    public void removeFriend(Long userId, Long friendId) {
+    public boolean removeFriend(Long userId, Long friendId) {
         // Получаем множество друзей пользователя
         Set<Long> userFriends = friendships.get(userId);
 
         // Если множество существует — удаляем друга
-        if (userFriends != null) {
-            userFriends.remove(friendId);
+        if (userFriends == null || !userFriends.remove(friendId)) {
+            return false;
         }
+        userTestStorage.findById(userId).ifPresent(user -> user.getFriends().remove(friendId));
+        return true;
     }
 
     @Override
@@ -65,4 +75,14 @@ public class FriendshipTestStorage implements FriendshipStorage {
 
         return commonFriends;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void exportAll(Consumer<Friendship> consumer) {
+        friendships.forEach((userId, friendIds) -> friendIds.forEach(friendId -> {
+            Friendship friendship = new Friendship();
+            friendship.setUserId(userId);
+            friendship.setFriendId(friendId);
+            consumer.accept(friendship);
+        }));
+    }
+}
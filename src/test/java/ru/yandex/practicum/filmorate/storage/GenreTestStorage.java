@@ -3,6 +3,7 @@ package ru.yandex.practicum.filmorate.storage;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 
 import java.util.*;
@@ -50,6 +51,18 @@ public class GenreTestStorage implements GenreStorage {
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public Map<Long, Set<Genre>> findGenresForFilms(Collection<Long> filmIds) {
+        Map<Long, Set<Genre>> result = new HashMap<>();
+        filmIds.forEach(filmId -> result.put(filmId, new LinkedHashSet<>(findGenreForFilm(filmId))));
+        return result;
+    }
+
+    @Override
+    public Map<Long, Set<Genre>> findGenresForAllFilms() {
+        return findGenresForFilms(filmToGenres.keySet());
+    }
+
     @Override
     public void setGenreForFilm(Long filmId, Collection<Genre> genres) {
         Set<Long> genreIds = genres.stream()
@@ -57,4 +70,16 @@ public class GenreTestStorage implements GenreStorage {
                 .collect(Collectors.toSet());
         filmToGenres.put(filmId, genreIds);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void addGenresForFilms(Collection<Film> films) {
+        films.stream()
+                .filter(film -> film.getGenres() != null)
+                .forEach(film -> setGenreForFilm(film.getId(), film.getGenres()));
+    }
+
+    @Override
+    public void reload() {
+        // Тестовый справочник хранится в памяти, перечитывать нечего
+    }
+}
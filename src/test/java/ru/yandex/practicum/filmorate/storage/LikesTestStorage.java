@@ -1,11 +1,15 @@
 package ru.yandex.practicum.filmorate.storage;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.FilmField;
 import ru.yandex.practicum.filmorate.model.Likes;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -15,18 +19,42 @@ import java.util.stream.Collectors;
 @Slf4j
 @Repository
 @Primary
+@RequiredArgsConstructor
 public class LikesTestStorage implements LikesStorage {
 
+    private final FilmTestStorage filmTestStorage;
+    private final UserTestStorage userTestStorage;
     private final Map<Long, Set<Long>> filmLikes = new HashMap<>();
 
+    // Как и внешние ключи в БД, несуществующие фильм или пользователь приводят к NotFoundException
     @Override
-    public void addLikeToFilm(Long filmId, Long userId) {
-        filmLikes.computeIfAbsent(filmId, k -> new HashSet<>()).add(userId);
+    public boolean addLikeToFilm(Long filmId, Long userId) {
+        Film film = findFilm(filmId, userId);
+        boolean added = filmLikes.computeIfAbsent(filmId, k -> new HashSet<>()).add(userId);
+        film.getLikesByUsers().add(userId);
+        return added;
     }
 
     @Override
-    public void removeLikeFromFilm(Long filmId, Long userId) {
-        filmLikes.getOrDefault(filmId, Set.of()).remove(userId);
+    public boolean removeLikeFromFilm(Long filmId, Long userId) {
+        Film film = findFilm(filmId, userId);
+        boolean removed = filmLikes.getOrDefault(filmId, new HashSet<>()).remove(userId);
+        film.getLikesByUsers().remove(userId);
+        return removed;
+    }
+
+    @Override
+    public List<Likes> addLikesBatch(Collection<Likes> likes) {
+        return likes.stream()
+                .filter(like -> addLikeToFilm(like.getFilmId(), like.getUserId()))
+                .toList();
+    }
+
+    @Override
+    public List<Likes> removeLikesBatch(Collection<Likes> likes) {
+        return likes.stream()
+                .filter(like -> removeLikeFromFilm(like.getFilmId(), like.getUserId()))
+                .toList();
     }
 
     @Override
@@ -41,4 +69,68 @@ public class LikesTestStorage implements LikesStorage {
                 })
                 .collect(Collectors.toList());
     }
+
+    @Override
+    public Map<Long, Set<Long>> getLikesOnFilms(Collection<Long> filmIds) {
+        Map<Long, Set<Long>> likes = new HashMap<>();
+        filmIds.stream()
+                .filter(filmLikes::containsKey)
+                .forEach(filmId -> likes.put(filmId, new HashSet<>(filmLikes.get(filmId))));
+        return likes;
+    }
+
+    @Override
+    public Map<Long, Set<Long>> getLikesOnAllFilms() {
+        return getLikesOnFilms(filmLikes.keySet());
+    }
+
+    @Override
+    public Map<Long, Long> countLikesByFilm() {
+        // Как и запрос в БД, учитываются все фильмы, в том числе без лайков
+        Map<Long, Long> counts = new HashMap<>();
+        filmTestStorage.findAll(FilmField.ALL).forEach(film -> counts.put(film.getId(),
+                (long) filmLikes.getOrDefault(film.getId(), Set.of()).size()));
+        return counts;
+    }
+
+    @Override
+    public List<Long> findFilmsLikedByUser(Long userId, long afterFilmId, int limit) {
+        return filmLikes.entrySet().stream()
+                .filter(entry -> entry.getKey() > afterFilmId && entry.getValue().contains(userId))
+                .map(Map.Entry::getKey)
+                .sorted()
+                .limit(limit)
+                .toList();
+    }
+
+    @Override
+    public List<Long> findFilmsLikedByFriends(Long userId, int limit) {
+        Set<Long> friends = userTestStorage.findById(userId).orElseThrow().getFriends();
+        Map<Long, Long> friendsLiked = new HashMap<>();
+        filmLikes.forEach((filmId, userIds) -> {
+            long count = userIds.stream().filter(friends::contains).count();
+            if (count > 0) {
+                friendsLiked.put(filmId, count);
+            }
+        });
+        return friendsLiked.entrySet().stream()
+                .sorted(Map.Entry.<Long, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    @Override
+    public void exportAll(Consumer<Likes> consumer) {
+        filmLikes.forEach((filmId, userIds) -> getLikesOnFilm(filmId).forEach(consumer));
+    }
+
+    private Film findFilm(Long filmId, Long userId) {
+        Film film = filmTestStorage.findById(filmId).orElseThrow();
+        userTestStorage.findById(userId);
+        if (film.getLikesByUsers() == null) {
+            film.setLikesByUsers(new HashSet<>());
+        }
+        return film;
+    }
 }
\ No newline at end of file
@@ -44,6 +44,11 @@ public class MpaTestStorage implements MpaStorage {
                 .flatMap(this::findMpaById);
     }
 
+    @Override
+    public void reload() {
+        // Тестовый справочник хранится в памяти, перечитывать нечего
+    }
+
     // Вспомогательный метод для добавления рейтингов
     private Mpa createMpa(Long id, String name) {
         Mpa mpa = new Mpa();
@@ -40,6 +40,20 @@ public class UserTestStorage implements UserStorage {
         return user;
     }
 
+    // Пакетное добавление пользователей. Как и транзакция в БД, пакет сохраняется целиком или не сохраняется вовсе
+    @Override
+    public List<User> createBatch(List<User> users) {
+        Set<String> batchEmails = new HashSet<>();
+        users.forEach(user -> {
+            checkEmailUniqueness(user.getEmail());
+            if (!batchEmails.add(user.getEmail().toLowerCase())) {
+                throw new DuplicateException("Email уже используется");
+            }
+        });
+        users.forEach(this::create);
+        return users;
+    }
+
     // Удаление пользователя по id
     @Override
     public void delete(Long id) {
@@ -66,6 +80,18 @@ public class UserTestStorage implements UserStorage {
         return user;
     }
 
+    // Проверка существования пользователя
+    @Override
+    public boolean exists(Long id) {
+        return users.containsKey(id);
+    }
+
+    // Проверка существования всех пользователей из списка
+    @Override
+    public boolean existsAll(Collection<Long> ids) {
+        return users.keySet().containsAll(ids);
+    }
+
     // Получение пользователя по id
     @Override
     public Optional<User> findById(Long id) {
@@ -79,6 +105,16 @@ public class UserTestStorage implements UserStorage {
         return List.copyOf(users.values());
     }
 
+    // Получение страницы пользователей с id больше afterId
+    @Override
+    public List<User> findPage(long afterId, int limit) {
+        return users.values().stream()
+                .filter(user -> user.getId() > afterId)
+                .sorted(Comparator.comparing(User::getId))
+                .limit(limit)
+                .toList();
+    }
+
     // Вспомогательный метод для проверки на наличие дубликата email
     private void checkEmailUniqueness(String email) {
         if (usersEmail.contains(email.toLowerCase())) {